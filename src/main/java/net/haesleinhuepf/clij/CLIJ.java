@@ -15,9 +15,26 @@ import ij.ImagePlus;
 import net.haesleinhuepf.clij.converters.CLIJConverterPlugin;
 import net.haesleinhuepf.clij.converters.CLIJConverterService;
 import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.kernels.PixelwiseFusion;
+import net.haesleinhuepf.clij.utilities.AllocationScope;
+import net.haesleinhuepf.clij.utilities.BufferPool;
+import net.haesleinhuepf.clij.utilities.BufferViews;
 import net.haesleinhuepf.clij.utilities.CLIJOps;
 import net.haesleinhuepf.clij.utilities.CLInfo;
 import net.haesleinhuepf.clij.utilities.CLKernelExecutor;
+import net.haesleinhuepf.clij.utilities.ExecutionGraph;
+import net.haesleinhuepf.clij.utilities.HostMemoryMapping;
+import net.haesleinhuepf.clij.utilities.HostSpilling;
+import net.haesleinhuepf.clij.utilities.ProgramBinaryCache;
+import net.haesleinhuepf.clij.utilities.KernelDeclaration;
+import net.haesleinhuepf.clij.utilities.KernelExecutionHandle;
+import net.haesleinhuepf.clij.utilities.KernelWarmUp;
+import net.haesleinhuepf.clij.utilities.LocalSizeTuner;
+import net.haesleinhuepf.clij.utilities.MemoryAccounting;
+import net.haesleinhuepf.clij.utilities.MetricsRegistry;
+import net.haesleinhuepf.clij.utilities.OpenCLProfiler;
+import net.haesleinhuepf.clij.utilities.ProgramCache;
+import net.haesleinhuepf.clij.utilities.SpillableBuffer;
 import net.haesleinhuepf.clij.utilities.TypeFixer;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImgs;
@@ -28,11 +45,17 @@ import net.imglib2.type.numeric.integer.ByteType;
 import org.scijava.Context;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * CLIJ is an entry point for ImageJ/OpenCL compatibility.
@@ -64,7 +87,28 @@ public class CLIJ {
     private static ClearCL mClearCL = null;
     private static ArrayList<ClearCLDevice> allDevices = null;
 
-    private CLKernelExecutor mCLKernelExecutor = null;
+    // every thread has its own executor and command queue; all executors share the program cache
+    private ThreadLocal<CLKernelExecutor> mCLKernelExecutors = new ThreadLocal<CLKernelExecutor>();
+    // executors of all threads; executors of terminated threads are closed when a new one is created
+    private final HashMap<Thread, CLKernelExecutor> mAllCLKernelExecutors = new HashMap<Thread, CLKernelExecutor>();
+    private boolean sizeIndependentKernelCompilation = false;
+    private ProgramBinaryCache programBinaryCache = null;
+    private LocalSizeTuner localSizeTuner = null;
+    private final ProgramCache programCache = new ProgramCache();
+    private boolean kernelReuse = true;
+    private boolean waitForKernelFinish = true;
+    private boolean lazyExecution = false;
+    private OpenCLProfiler profiler = null;
+    private volatile MetricsRegistry metricsRegistry = null;
+    private int numberOfConcurrentQueues = 4;
+    private final ArrayList<ClearCLQueue> concurrentQueues = new ArrayList<ClearCLQueue>();
+    private final ThreadLocal<Boolean> concurrentExecution = ThreadLocal.withInitial(() -> false);
+    private final ExecutionGraph executionGraph = new ExecutionGraph();
+    private volatile BufferPool bufferPool = null;
+    private final ArrayList<Object> pendingReleases = new ArrayList<Object>();
+    private final MemoryAccounting memoryAccounting = new MemoryAccounting();
+    private volatile HostSpilling hostSpilling = null;
+    private boolean hostMemoryMapping = false;
 
     public static boolean debug = false;
 
@@ -161,7 +205,7 @@ public class CLIJ {
     }
 
     private static String lastDeviceNameAskedFor = "";
-    public static CLIJ getInstance(String pDeviceNameMustContain) {
+    public static synchronized CLIJ getInstance(String pDeviceNameMustContain) {
         if (sInstance == null) {
             sInstance = new CLIJ(pDeviceNameMustContain);
         } else {
@@ -192,6 +236,125 @@ public class CLIJ {
     }
     public long getGPUMemoryInBytes() { return getClearCLContext().getDevice().getGlobalMemorySizeInBytes(); }
 
+    /**
+     * @return bytes of all ClearCLBuffers and ClearCLImages created by this instance and not closed yet
+     */
+    public long getAllocatedMemoryInBytes() { return memoryAccounting.getAllocatedBytes(); }
+
+    public MemoryAccounting getMemoryAccounting() {
+        return memoryAccounting;
+    }
+
+    /**
+     * On CPU OpenCL devices and integrated GPUs, images are pushed by writing to mapped device memory
+     * directly instead of copying them via an intermediate array. Disabled by default.
+     */
+    public void setHostMemoryMappingEnabled(boolean hostMemoryMapping) {
+        this.hostMemoryMapping = hostMemoryMapping;
+    }
+
+    public boolean isHostMemoryMappingEnabled() {
+        return hostMemoryMapping;
+    }
+
+    /**
+     * @return true if host memory mapping is enabled and the device shares its memory with the host
+     */
+    public boolean isHostMemoryMappingUsed() {
+        return hostMemoryMapping && HostMemoryMapping.isHostUnifiedMemory(mClearCLContext);
+    }
+
+    /**
+     * Limits the memory this instance may allocate. If an image to create exceeds the budget, unused pooled
+     * and released images are closed. If it still doesn't fit, creating the image fails with an
+     * IllegalStateException.
+     *
+     * @param budgetInBytes maximum number of bytes or MemoryAccounting.UNLIMITED (default)
+     */
+    public void setMemoryBudgetInBytes(long budgetInBytes) {
+        memoryAccounting.setBudgetInBytes(budgetInBytes);
+    }
+
+    public long getMemoryBudgetInBytes() {
+        return memoryAccounting.getBudgetInBytes();
+    }
+
+    /**
+     * Closes images which are kept for reuse only: images in the buffer pool and, in lazy execution mode,
+     * released temporary images.
+     */
+    public void freeUnusedMemory() {
+        BufferPool pool = bufferPool;
+        if (pool != null) {
+            pool.clear();
+        }
+        if (lazyExecution) {
+            flush();
+            executionGraph.closeReleasedImages();
+        }
+    }
+
+    private void reserveMemory(long sizeInBytes) {
+        if (!memoryAccounting.fits(sizeInBytes)) {
+            freeUnusedMemory();
+        }
+        HostSpilling spilling = hostSpilling;
+        if (spilling != null) {
+            spilling.spillUntilFits(memoryAccounting, sizeInBytes, getGPUMemoryInBytes());
+        }
+        memoryAccounting.assertFits(sizeInBytes);
+    }
+
+    /**
+     * Creates a buffer which is moved to host memory if device memory or the memory budget is exhausted.
+     * Hand the returned handle over to execute() or convert() instead of a ClearCLBuffer; it is uploaded again
+     * when necessary. Least recently used buffers are spilled first.
+     * <p>
+     * Spilling is not transparent to Kernels and CLIJOps: their methods take ClearCLBuffers only. A buffer
+     * obtained via SpillableBuffer.getBuffer() is closed when the handle is spilled, which may happen whenever
+     * an image is allocated. Thus, use it for a single call only and get it again afterwards.
+     */
+    public SpillableBuffer createSpillableBuffer(long[] dimensions, NativeTypeEnum pNativeType) {
+        return makeSpillable(createCLBuffer(dimensions, pNativeType));
+    }
+
+    /**
+     * Hands the given buffer over to host spilling. Afterwards, the buffer should only be accessed via the
+     * returned handle.
+     */
+    public SpillableBuffer makeSpillable(ClearCLBuffer buffer) {
+        // the handle manages the buffer from now on
+        AllocationScope.untrack(this, buffer);
+        return getHostSpilling().manage(buffer);
+    }
+
+    /**
+     * Opens an allocation scope in the current thread. All images created by this thread while the scope is
+     * open are released when it is closed, except the ones handed over to AllocationScope.escape().
+     * <p>
+     * try (AllocationScope scope = clij.openScope()) {
+     *     ...
+     * }
+     */
+    public AllocationScope openScope() {
+        return new AllocationScope(this);
+    }
+
+    public synchronized HostSpilling getHostSpilling() {
+        if (hostSpilling == null) {
+            hostSpilling = new HostSpilling(this);
+        }
+        return hostSpilling;
+    }
+
+    private static long getSizeInBytes(long[] dimensions, NativeTypeEnum pNativeType) {
+        long sizeInBytes = pNativeType.getSizeInBytes();
+        for (long dimension : dimensions) {
+            sizeInBytes *= dimension;
+        }
+        return sizeInBytes;
+    }
+
     public static String clinfo() {
         return CLInfo.clinfo();
     }
@@ -234,43 +397,189 @@ public class CLIJ {
                            String pKernelname,
                            long[] pGlobalsizes,
                            Map<String, Object> pParameterMap) {
+        return execute(pAnchorClass, pProgramFilename, null, pKernelname, pGlobalsizes, pParameterMap, waitForKernelFinish && !concurrentExecution.get(), lazyExecution);
+    }
+
+    /**
+     * Executes a kernel from OpenCL source code which is not stored in a file, e.g. generated code.
+     *
+     * @param pAnchorClass class the program belongs to
+     * @param pProgramName name which identifies the program; must be unique for every source code
+     * @param pProgramSourceCode OpenCL source code
+     * @param pKernelname name of the kernel to execute
+     * @param pGlobalsizes global sizes or null to derive them from the dst image
+     * @param pParameterMap kernel parameters
+     * @return true if the kernel was enqueued successfully
+     */
+    public boolean executeCode(Class pAnchorClass,
+                               String pProgramName,
+                               String pProgramSourceCode,
+                               String pKernelname,
+                               long[] pGlobalsizes,
+                               Map<String, Object> pParameterMap) {
+        return execute(pAnchorClass, pProgramName, pProgramSourceCode, pKernelname, pGlobalsizes, pParameterMap, waitForKernelFinish && !concurrentExecution.get(), lazyExecution);
+    }
+
+    /**
+     * Executes a kernel once for every given parameter map, e.g. for processing many frames of a time-lapse.
+     * Consecutive maps with the same keys and images of the same size and type share one program and
+     * kernel: the program is resolved once, only the arguments are bound per map and all kernels are
+     * enqueued back-to-back. Unless asynchronous execution is enabled, this method waits once at the end.
+     *
+     * @param pAnchorClass class the program file belongs to
+     * @param pProgramFilename program file
+     * @param pKernelname name of the kernel to execute
+     * @param pGlobalsizes global sizes or null to derive them from the dst image
+     * @param pParameterMaps one parameter map per launch
+     * @return true if all kernels were enqueued successfully
+     */
+    public boolean executeBatch(Class pAnchorClass,
+                                String pProgramFilename,
+                                String pKernelname,
+                                long[] pGlobalsizes,
+                                List<Map<String, Object>> pParameterMaps) {
+        boolean result = true;
+        int start = 0;
+        while (start < pParameterMaps.size()) {
+            int end = start + 1;
+            while (end < pParameterMaps.size() && isBatchCompatible(pParameterMaps.get(start), pParameterMaps.get(end))) {
+                end++;
+            }
+            boolean last = end == pParameterMaps.size();
+            List<Map<String, Object>> batch = pParameterMaps.subList(start, end);
+
+            if (lazyExecution || concurrentExecution.get() || HostSpilling.containsSpillableBuffers(batch.get(0)) || new TypeFixer(this, batch.get(0)).isFixNecessary()) {
+                for (Map<String, Object> parameterMap : batch) {
+                    result = execute(pAnchorClass, pProgramFilename, pKernelname, pGlobalsizes, parameterMap) && result;
+                }
+            } else {
+                result = enqueueBatch(pAnchorClass, pProgramFilename, pKernelname, pGlobalsizes, batch, waitForKernelFinish && last) && result;
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    private static boolean isBatchCompatible(Map<String, Object> parameterMap1, Map<String, Object> parameterMap2) {
+        if (!parameterMap1.keySet().equals(parameterMap2.keySet())) {
+            return false;
+        }
+        for (String key : parameterMap1.keySet()) {
+            Object parameter1 = parameterMap1.get(key);
+            Object parameter2 = parameterMap2.get(key);
+            if (parameter1 == null || parameter2 == null || parameter1.getClass() != parameter2.getClass()) {
+                return false;
+            }
+            if (parameter1 instanceof ClearCLBuffer) {
+                ClearCLBuffer buffer1 = (ClearCLBuffer) parameter1;
+                ClearCLBuffer buffer2 = (ClearCLBuffer) parameter2;
+                if (buffer1.getNativeType() != buffer2.getNativeType() || !Arrays.equals(buffer1.getDimensions(), buffer2.getDimensions())) {
+                    return false;
+                }
+            } else if (parameter1 instanceof ClearCLImage) {
+                ClearCLImage image1 = (ClearCLImage) parameter1;
+                ClearCLImage image2 = (ClearCLImage) parameter2;
+                if (image1.getChannelDataType() != image2.getChannelDataType() || !Arrays.equals(image1.getDimensions(), image2.getDimensions())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean enqueueBatch(Class pAnchorClass,
+                                 String pProgramFilename,
+                                 String pKernelname,
+                                 long[] pGlobalsizes,
+                                 List<Map<String, Object>> pParameterMaps,
+                                 boolean waitToFinish) {
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        CLKernelExecutor executor = getCLKernelExecutor();
+        executor.setProgramFilename(pProgramFilename);
+        executor.setProgramSourceCode(null);
+        executor.setKernelName(pKernelname);
+        executor.setAnchorClass(pAnchorClass);
+        executor.setGlobalSizes(pGlobalsizes);
+        boolean result = executor.enqueueBatch(pParameterMaps, waitToFinish);
+        for (int i = 0; i < pParameterMaps.size(); i++) {
+            executor.kernelEnqueued(waitToFinish && i == pParameterMaps.size() - 1);
+        }
+
+        if (metrics != null) {
+            long bytes = 0;
+            for (Map<String, Object> parameterMap : pParameterMaps) {
+                for (Object parameter : parameterMap.values()) {
+                    bytes += getSizeInBytes(parameter);
+                }
+            }
+            metrics.record("kernel batch " + pKernelname, System.nanoTime() - startTime, bytes);
+        }
+        return result;
+    }
+
+    /**
+     * Enqueues a kernel without waiting for it to finish. The returned handle allows waiting for the kernel.
+     * Pulling and converting images as well as calling finish() also wait for all enqueued kernels.
+     */
+    public KernelExecutionHandle executeAsync(Class pAnchorClass,
+                                              String pProgramFilename,
+                                              String pKernelname,
+                                              Map<String, Object> pParameterMap) {
+        return executeAsync(pAnchorClass, pProgramFilename, pKernelname, null, pParameterMap);
+    }
+
+    public KernelExecutionHandle executeAsync(Class pAnchorClass,
+                                              String pProgramFilename,
+                                              String pKernelname,
+                                              long[] pGlobalsizes,
+                                              Map<String, Object> pParameterMap) {
+        // asynchronous calls are not recorded
+        boolean enqueued = execute(pAnchorClass, pProgramFilename, null, pKernelname, pGlobalsizes, pParameterMap, false, false);
+        CLKernelExecutor executor = getCLKernelExecutor();
+        return new KernelExecutionHandle(this, executor, executor.getEnqueuedKernelCount(), enqueued);
+    }
+
+    private boolean execute(Class pAnchorClass,
+                            String pProgramFilename,
+                            String pProgramSourceCode,
+                            String pKernelname,
+                            long[] pGlobalsizes,
+                            Map<String, Object> pParameterMap,
+                            boolean waitToFinish,
+                            boolean record) {
+
+        HostSpilling spilling = hostSpilling;
+        if (spilling != null && HostSpilling.containsSpillableBuffers(pParameterMap)) {
+            Map<String, Object> pinnedParameterMap = spilling.pin(pParameterMap, getCLKernelExecutor().getQueue());
+            try {
+                return execute(pAnchorClass, pProgramFilename, pProgramSourceCode, pKernelname, pGlobalsizes, pinnedParameterMap, waitToFinish, record);
+            } finally {
+                spilling.unpin(pParameterMap);
+            }
+        }
 
         TypeFixer inputTypeFixer = new TypeFixer(this, pParameterMap);
         inputTypeFixer.fix();
 
-        final boolean[] result = new boolean[1];
-
         if (debug) {
             for (String key : pParameterMap.keySet()) {
                 System.out.println(key + " = " + pParameterMap.get(key));
             }
         }
 
-        ElapsedTime.measure("kernel + build " + pKernelname, () -> {
-            if (mCLKernelExecutor == null) {
-                try {
-                    mCLKernelExecutor = new CLKernelExecutor(mClearCLContext,
-                            pAnchorClass,
-                            pProgramFilename,
-                            pKernelname,
-                            pGlobalsizes);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    result[0] = false;
-                    return;
-                }
-            } else {
-                mCLKernelExecutor.setProgramFilename(pProgramFilename);
-                mCLKernelExecutor.setKernelName(pKernelname);
-                mCLKernelExecutor.setAnchorClass(pAnchorClass);
-                mCLKernelExecutor.setParameterMap(pParameterMap);
-                mCLKernelExecutor.setGlobalSizes(pGlobalsizes);
+        boolean result;
+        if (record) {
+            executionGraph.record(pAnchorClass, pProgramFilename, pProgramSourceCode, pKernelname, pGlobalsizes, pParameterMap);
+            result = true;
+        } else {
+            if (lazyExecution) {
+                // e.g. copies recorded by the TypeFixer
+                flush();
             }
-
-
-            mCLKernelExecutor.setParameterMap(pParameterMap);
-            result[0] = mCLKernelExecutor.enqueue(true);
-        });
+            result = enqueue(pAnchorClass, pProgramFilename, pProgramSourceCode, pKernelname, pGlobalsizes, pParameterMap, waitToFinish);
+        }
 
         inputTypeFixer.unfix();
 
@@ -278,9 +587,559 @@ public class CLIJ {
         //RessourceCleaner.cleanNow();
         //System.out.println("Cleaning");
 
+        return result;
+    }
+
+    private boolean enqueue(Class pAnchorClass,
+                            String pProgramFilename,
+                            String pProgramSourceCode,
+                            String pKernelname,
+                            long[] pGlobalsizes,
+                            Map<String, Object> pParameterMap,
+                            boolean waitToFinish) {
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        final boolean[] result = new boolean[1];
+        ElapsedTime.measure("kernel + build " + pKernelname, () -> {
+            CLKernelExecutor executor = getCLKernelExecutor();
+            executor.setProgramFilename(pProgramFilename);
+            executor.setProgramSourceCode(pProgramSourceCode);
+            executor.setKernelName(pKernelname);
+            executor.setAnchorClass(pAnchorClass);
+            executor.setGlobalSizes(pGlobalsizes);
+            executor.setParameterMap(pParameterMap);
+            result[0] = executor.enqueue(waitToFinish);
+            executor.kernelEnqueued(waitToFinish);
+        });
+
+        if (metrics != null) {
+            long bytes = 0;
+            for (Object parameter : pParameterMap.values()) {
+                bytes += getSizeInBytes(parameter);
+            }
+            metrics.record("kernel " + pKernelname, System.nanoTime() - startTime, bytes);
+        }
         return result[0];
     }
 
+    private static long getSizeInBytes(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            return ((ClearCLBuffer) image).getSizeInBytes();
+        } else if (image instanceof ClearCLImage) {
+            return ((ClearCLImage) image).getSizeInBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Enables collecting latencies, call counts and bytes touched of kernel calls, conversions and
+     * allocations. Without registry (default), nothing is measured.
+     * <p>
+     * Kernel calls are recorded per OpenCL kernel name, e.g. "kernel gaussian_blur_sep_image3d", and not per
+     * Kernels/CLIJOps method: an operation launching several kernels shows up as several metrics, and
+     * operations sharing a kernel share its metric. Latencies include building the program on first use and
+     * cover enqueueing only, unless the call waits for the kernel to finish.
+     *
+     * @param metricsRegistry registry to collect metrics in or null to disable collecting metrics
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * In lazy execution mode, kernel calls are recorded instead of executed immediately. Recorded kernels
+     * are executed when images are pulled or converted, when finish() is called or explicitly by calling
+     * flush(). Kernels which only write temporary images that are released without being read are skipped.
+     * <p>
+     * In lazy mode, images handed over to kernels must not be closed before the next flush. Use release()
+     * instead, which additionally allows reusing the image as temporary image.
+     *
+     * @param lazyExecution true to enable lazy execution
+     */
+    public void setLazyExecution(boolean lazyExecution) {
+        if (!lazyExecution) {
+            flush();
+            executionGraph.closeReleasedImages();
+        }
+        this.lazyExecution = lazyExecution;
+    }
+
+    public boolean isLazyExecution() {
+        return lazyExecution;
+    }
+
+    /**
+     * Executes all kernels recorded in lazy execution mode.
+     */
+    public void flush() {
+        for (ExecutionGraph.Node node : executionGraph.flush()) {
+            enqueue(node.getAnchorClass(),
+                    node.getProgramFilename(),
+                    node.getProgramSourceCode(),
+                    node.getKernelName(),
+                    node.getGlobalSizes(),
+                    node.getParameterMap(),
+                    waitForKernelFinish);
+        }
+    }
+
+    public ExecutionGraph getExecutionGraph() {
+        return executionGraph;
+    }
+
+    /**
+     * Creates a buffer for temporary results. Hand it over to release() instead of closing it. In lazy execution
+     * mode, released buffers of the same size and type are reused. Otherwise, the buffer pool is
+     * used if set.
+     */
+    public ClearCLBuffer createTemporary(long[] dimensions, NativeTypeEnum pNativeType) {
+        if (lazyExecution) {
+            ClearCLBuffer buffer = executionGraph.getReusableBuffer(dimensions, pNativeType);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return createCLBuffer(dimensions, pNativeType);
+    }
+
+    /**
+     * Creates an image for temporary results. Hand it over to release() instead of closing it. In lazy execution
+     * mode, released images of the same size and type are reused. Otherwise, the buffer pool is
+     * used if set.
+     */
+    public ClearCLImage createTemporary(long[] dimensions, ImageChannelDataType pImageChannelType) {
+        if (lazyExecution) {
+            ClearCLImage image = executionGraph.getReusableImage(dimensions, pImageChannelType);
+            if (image != null) {
+                return image;
+            }
+        }
+        return createCLImage(dimensions, pImageChannelType);
+    }
+
+    /**
+     * Closes the given ClearCLBuffer or ClearCLImage. In lazy execution mode, the image is kept until recorded
+     * kernels using it are executed and it may be reused by createTemporary(). If a buffer pool is set, the
+     * image is put into the pool and may be reused by create().
+     *
+     * @param image ClearCLBuffer or ClearCLImage
+     */
+    public void release(Object image) {
+        if (BufferViews.isView(image) || HostMemoryMapping.isWrapped(image)) {
+            // views and wrapped buffers share memory with someone else; they're never reused
+            if (lazyExecution) {
+                flush();
+            }
+            memoryAccounting.released(image);
+            ((ClearCLBuffer) image).close();
+            return;
+        }
+        // in lazy mode, the execution graph manages reuse; concurrently used images must not be reused immediately
+        if (AllocationScope.released(this, image, !lazyExecution && !concurrentExecution.get())) {
+            if (!waitForKernelFinish) {
+                // recycled images may be overwritten by the host, e.g. by push()
+                finishCurrentThread();
+            }
+            return;
+        }
+        BufferPool pool = bufferPool;
+        if (lazyExecution) {
+            executionGraph.release(image);
+        } else if (pool != null) {
+            if (concurrentExecution.get()) {
+                // other queues may still use the image; it's pooled when executeConcurrently() is finished
+                synchronized (pendingReleases) {
+                    pendingReleases.add(image);
+                }
+                return;
+            }
+            if (!waitForKernelFinish) {
+                // the image may be handed out to another thread or overwritten by the host, e.g. by push()
+                finishCurrentThread();
+            }
+            pool.release(image);
+        } else if (image instanceof ClearCLBuffer) {
+            memoryAccounting.released(image);
+            ((ClearCLBuffer) image).close();
+        } else if (image instanceof ClearCLImage) {
+            memoryAccounting.released(image);
+            ((ClearCLImage) image).close();
+        }
+    }
+
+    private void releasePendingImages() {
+        ArrayList<Object> images;
+        synchronized (pendingReleases) {
+            images = new ArrayList<Object>(pendingReleases);
+            pendingReleases.clear();
+        }
+        for (Object image : images) {
+            release(image);
+        }
+    }
+
+    /**
+     * Makes create() reuse images released by release() instead of allocating new ones. Images are
+     * reused if dimensions, type and access flags match. Images previously pooled are closed.
+     *
+     * @param bufferPool pool to use or null to allocate every image (default)
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        BufferPool formerPool = this.bufferPool;
+        this.bufferPool = bufferPool;
+        if (formerPool != null && formerPool != bufferPool) {
+            formerPool.clear();
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Runs the given tasks, which typically call several kernels, on separate command queues. Kernels of one
+     * task are executed in the given order; kernels of different tasks may run concurrently on the device.
+     * The method returns when all kernels of all tasks are finished. Thus, tasks must not depend on each
+     * others results and must use their own temporary images.
+     * <p>
+     * ClearCL doesn't expose OpenCL events. Therefore, dependencies between queues are expressed by waiting:
+     * kernels enqueued before and data pushed to the default queue are finished before the tasks start, and
+     * all queues are finished before the method returns.
+     *
+     * @param tasks independent tasks
+     */
+    public void executeConcurrently(Runnable... tasks) {
+        if (lazyExecution || concurrentExecution.get()) {
+            // recorded kernels are executed in order anyway; nested tasks use the queue of the outer task
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        CLKernelExecutor executor = getCLKernelExecutor();
+        ClearCLQueue formerQueue = executor.getQueue();
+        ArrayList<ClearCLQueue> queues = getConcurrentQueues();
+        // the tasks may read images written by kernels of this thread or pushed on the default queue
+        flush();
+        executor.finish();
+        mClearCLContext.getDefaultQueue().waitToFinish();
+        concurrentExecution.set(true);
+        try {
+            for (int i = 0; i < tasks.length; i++) {
+                executor.setQueue(queues.get(i % queues.size()));
+                tasks[i].run();
+            }
+        } finally {
+            executor.setQueue(formerQueue);
+            concurrentExecution.set(false);
+            for (ClearCLQueue queue : queues) {
+                queue.waitToFinish();
+            }
+            finish();
+            releasePendingImages();
+        }
+    }
+
+    private ArrayList<ClearCLQueue> getConcurrentQueues() {
+        synchronized (concurrentQueues) {
+            while (concurrentQueues.size() < numberOfConcurrentQueues) {
+                concurrentQueues.add(mClearCLContext.createQueue());
+            }
+            return new ArrayList<ClearCLQueue>(concurrentQueues.subList(0, numberOfConcurrentQueues));
+        }
+    }
+
+    /**
+     * Sets the number of command queues used by executeConcurrently(). Default: 4
+     *
+     * @param numberOfConcurrentQueues number of queues, at least one
+     */
+    public void setNumberOfConcurrentQueues(int numberOfConcurrentQueues) {
+        if (numberOfConcurrentQueues < 1) {
+            throw new IllegalArgumentException("Error: At least one command queue is necessary.");
+        }
+        this.numberOfConcurrentQueues = numberOfConcurrentQueues;
+    }
+
+    public int getNumberOfConcurrentQueues() {
+        return numberOfConcurrentQueues;
+    }
+
+    private CLKernelExecutor getCLKernelExecutor() {
+        CLKernelExecutor executor = mCLKernelExecutors.get();
+        if (executor == null) {
+            closeExecutorsOfTerminatedThreads();
+            try {
+                executor = new CLKernelExecutor(mClearCLContext, Object.class, null, null, null);
+            } catch (IOException e) {
+                // cannot happen as the constructor doesn't load anything
+                throw new IllegalStateException(e);
+            }
+            executor.setSizeIndependentCompilation(sizeIndependentKernelCompilation);
+            executor.setProgramBinaryCache(programBinaryCache);
+            executor.setProgramCache(programCache);
+            executor.setKernelReuse(kernelReuse);
+            executor.setProfiler(profiler);
+            executor.setLocalSizeTuner(localSizeTuner);
+            executor.setQueue(mClearCLContext.createQueue());
+            synchronized (mAllCLKernelExecutors) {
+                mAllCLKernelExecutors.put(Thread.currentThread(), executor);
+            }
+            mCLKernelExecutors.set(executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Every thread gets its own command queue. To not leak queues when threads of thread pools come and go,
+     * queues of terminated threads are closed after their kernels are finished.
+     */
+    private void closeExecutorsOfTerminatedThreads() {
+        ArrayList<CLKernelExecutor> terminatedExecutors = new ArrayList<CLKernelExecutor>();
+        synchronized (mAllCLKernelExecutors) {
+            Iterator<Map.Entry<Thread, CLKernelExecutor>> iterator = mAllCLKernelExecutors.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Thread, CLKernelExecutor> entry = iterator.next();
+                if (!entry.getKey().isAlive()) {
+                    terminatedExecutors.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        for (CLKernelExecutor executor : terminatedExecutors) {
+            synchronized (executor) {
+                executor.finish();
+                executor.close();
+                executor.getQueue().close();
+            }
+        }
+    }
+
+    private ArrayList<CLKernelExecutor> getAllCLKernelExecutors() {
+        synchronized (mAllCLKernelExecutors) {
+            return new ArrayList<CLKernelExecutor>(mAllCLKernelExecutors.values());
+        }
+    }
+
+    /**
+     * Waits until all kernels enqueued by the calling thread are finished. Images may be handed to other
+     * threads or overwritten by the host afterwards.
+     */
+    public void finishCurrentThread() {
+        flush();
+        getCLKernelExecutor().finish();
+    }
+
+    /**
+     * Waits until all enqueued kernels are finished, including kernels enqueued by other threads.
+     */
+    public void finish() {
+        flush();
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.finish();
+        }
+        synchronized (concurrentQueues) {
+            for (ClearCLQueue queue : concurrentQueues) {
+                queue.waitToFinish();
+            }
+        }
+        if (mClearCLContext != null) {
+            mClearCLContext.getDefaultQueue().waitToFinish();
+        }
+    }
+
+    /**
+     * Checks if the kernel with the given number, enqueued by the calling thread, is known to be finished,
+     * without waiting for the device.
+     *
+     * @param kernelNumber number of the kernel as counted since the calling thread used this instance first
+     * @return true if finished
+     */
+    public boolean isFinished(long kernelNumber) {
+        return getCLKernelExecutor().isFinished(kernelNumber);
+    }
+
+    /**
+     * By default, every kernel call blocks until the kernel is finished. If disabled, kernels are only
+     * enqueued and all methods of Kernels and CLIJOps return immediately. Pulling and converting images
+     * waits until all kernels are finished. Furthermore, finish() allows waiting explicitly.
+     *
+     * @param waitForKernelFinish false to enable asynchronous execution
+     */
+    public void setWaitForKernelFinish(boolean waitForKernelFinish) {
+        this.waitForKernelFinish = waitForKernelFinish;
+        if (waitForKernelFinish) {
+            finish();
+        }
+    }
+
+    public boolean isWaitForKernelFinish() {
+        return waitForKernelFinish;
+    }
+
+    /**
+     * Builds the programs of the given kernels on background threads. Afterwards, the first call of these
+     * kernels doesn't need to wait for compilation.
+     * <p>
+     * Programs are built for the dimensions given in the declarations. Unless size independent kernel
+     * compilation is enabled, image sizes are compiled into the programs as constants; then the warm-up only
+     * helps for calls with exactly the declared dimensions, and images of any other size cause a new build.
+     *
+     * @param declarations kernels to build
+     * @return future delivering the number of built kernels when finished
+     */
+    public Future<Integer> warmUp(List<KernelDeclaration> declarations) {
+        return new KernelWarmUp(this).precompile(declarations, KernelWarmUp.DEFAULT_NUMBER_OF_THREADS);
+    }
+
+    /**
+     * Builds the programs of all kernels in the Kernels package, which are used by CLIJOps, on background
+     * threads for images of the given type. Unless size independent kernel compilation is enabled, the
+     * programs are only reused for images of the given dimensions.
+     *
+     * @param pixelType type of input and output images
+     * @param dimensions image dimensions, two or three values
+     * @return future delivering the number of built kernels when finished
+     */
+    public Future<Integer> warmUp(NativeTypeEnum pixelType, long[] dimensions) {
+        return warmUp(KernelWarmUp.getKernelDeclarations(Kernels.class, pixelType, dimensions));
+    }
+
+    /**
+     * If enabled, image sizes are handed over to the OpenCL kernels as arguments instead of compiling them
+     * into the programs. Thus, processing images of varying size doesn't cause recompilation of the programs.
+     *
+     * @param sizeIndependentKernelCompilation true to enable
+     */
+    public void setSizeIndependentKernelCompilation(boolean sizeIndependentKernelCompilation) {
+        this.sizeIndependentKernelCompilation = sizeIndependentKernelCompilation;
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.setSizeIndependentCompilation(sizeIndependentKernelCompilation);
+        }
+    }
+
+    public boolean isSizeIndependentKernelCompilation() {
+        return sizeIndependentKernelCompilation;
+    }
+
+    /**
+     * If enabled (default), OpenCL kernel objects are created once and reused for subsequent calls of
+     * the same kernel. Otherwise, a kernel is created and released for every call.
+     *
+     * @param kernelReuse true to enable
+     */
+    public void setKernelReuse(boolean kernelReuse) {
+        this.kernelReuse = kernelReuse;
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.setKernelReuse(kernelReuse);
+        }
+    }
+
+    public boolean isKernelReuse() {
+        return kernelReuse;
+    }
+
+    /**
+     * If enabled, kernels and transfers of whole buffers in the converters are executed on a command queue
+     * with profiling enabled. Their OpenCL profiling timestamps are aggregated per kernel name and image shape
+     * and can be read via getProfiler(). Profiling waits for every command and thus slows down execution.
+     *
+     * @param profiling true to enable profiling
+     */
+    public void setProfiling(boolean profiling) {
+        finish();
+        if (profiling && profiler == null) {
+            profiler = new OpenCLProfiler(mClearCLContext);
+        } else if (!profiling && profiler != null) {
+            profiler.close();
+            profiler = null;
+        }
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.setProfiler(profiler);
+        }
+    }
+
+    public boolean isProfiling() {
+        return profiler != null;
+    }
+
+    /**
+     * @return the profiler or null if profiling is disabled
+     */
+    public OpenCLProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Enables storing compiled OpenCL programs in the given directory. In later sessions, programs are
+     * loaded from there instead of compiling them again. Hand over null to disable the on-disk cache.
+     * A typical directory is new File(System.getProperty("user.home"), ".clij/program_cache").
+     *
+     * @param directory directory for storing program binaries or null
+     */
+    public void setProgramBinaryCacheDirectory(File directory) {
+        if (directory == null) {
+            programBinaryCache = null;
+        } else {
+            programBinaryCache = new ProgramBinaryCache(directory);
+        }
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.setProgramBinaryCache(programBinaryCache);
+        }
+    }
+
+    public ProgramBinaryCache getProgramBinaryCache() {
+        return programBinaryCache;
+    }
+
+    /**
+     * Enables autotuning of local work sizes for the neighbourhood kernels in filtering.cl, blur.cl and
+     * binaryProcessing3D.cl. On first use of a kernel per device, dimensionality and pixel type, candidate
+     * local sizes are benchmarked and the fastest is stored in the given file. Later calls and sessions read
+     * it from there. Hand over null to leave local sizes to the driver (default).
+     * A typical file is new File(System.getProperty("user.home"), ".clij/local_sizes.properties").
+     *
+     * @param file properties file for storing tuned local sizes or null
+     */
+    public void setLocalSizeTuningFile(File file) {
+        if (file == null) {
+            localSizeTuner = null;
+        } else {
+            localSizeTuner = new LocalSizeTuner(file);
+        }
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.setLocalSizeTuner(localSizeTuner);
+        }
+    }
+
+    public LocalSizeTuner getLocalSizeTuner() {
+        return localSizeTuner;
+    }
+
+    /**
+     * Returns the fraction of kernel calls which could use an already compiled program.
+     *
+     * @return hit rate between 0 and 1
+     */
+    public double getProgramCacheHitRate() {
+        return programCache.getHitRate();
+    }
+
+    /**
+     * The program cache holds built OpenCL programs. Use it to read statistics about hits, misses,
+     * evictions and build time or to limit the number of programs kept.
+     *
+     * @return the program cache of this CLIJ instance
+     */
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
     @Deprecated // use close() instead
     public void dispose() {
         close();
@@ -309,7 +1168,24 @@ public class CLIJ {
     }
 
     public ClearCLImage createCLImage(ClearCLImage pInputImage) {
-        return mClearCLContext.createImage(pInputImage);
+        if (pInputImage.getChannelOrder() == ImageChannelOrder.R) {
+            ClearCLImage image = getPooledImage(pInputImage.getDimensions(), pInputImage.getChannelDataType(), pInputImage.getHostAccessType(), pInputImage.getKernelAccessType());
+            if (image != null) {
+                return image;
+            }
+        }
+        reserveMemory(pInputImage.getSizeInBytes());
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        ClearCLImage image = mClearCLContext.createImage(pInputImage);
+        memoryAccounting.allocated(image);
+        AllocationScope.allocated(this, image);
+
+        if (metrics != null) {
+            metrics.record("allocate ClearCLImage", System.nanoTime() - startTime, image.getSizeInBytes());
+        }
+        return image;
     }
 
     public ClearCLImage create(long[] dimensions, ImageChannelDataType pImageChannelType) {
@@ -317,12 +1193,26 @@ public class CLIJ {
     }
 
     public ClearCLImage createCLImage(long[] dimensions, ImageChannelDataType pImageChannelType) {
+        ClearCLImage pooledImage = getPooledImage(dimensions, pImageChannelType, HostAccessType.ReadWrite, KernelAccessType.ReadWrite);
+        if (pooledImage != null) {
+            return pooledImage;
+        }
+        reserveMemory(getSizeInBytes(dimensions, pImageChannelType.getNativeType()));
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
 
-        return mClearCLContext.createImage(HostAccessType.ReadWrite,
+        ClearCLImage image = mClearCLContext.createImage(HostAccessType.ReadWrite,
                 KernelAccessType.ReadWrite,
                 ImageChannelOrder.R,
                 pImageChannelType,
                 dimensions);
+        memoryAccounting.allocated(image);
+        AllocationScope.allocated(this, image);
+
+        if (metrics != null) {
+            metrics.record("allocate ClearCLImage", System.nanoTime() - startTime, image.getSizeInBytes());
+        }
+        return image;
     }
 
     public ClearCLBuffer create(ClearCLBuffer inputCL) {
@@ -338,7 +1228,15 @@ public class CLIJ {
     }
 
     public ClearCLBuffer createCLBuffer(long[] dimensions, NativeTypeEnum pNativeType) {
-        return mClearCLContext.createBuffer(
+        ClearCLBuffer pooledBuffer = getPooledBuffer(dimensions, pNativeType);
+        if (pooledBuffer != null) {
+            return pooledBuffer;
+        }
+        reserveMemory(getSizeInBytes(dimensions, pNativeType));
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        ClearCLBuffer buffer = mClearCLContext.createBuffer(
                 MemAllocMode.Best,
                 HostAccessType.ReadWrite,
                 KernelAccessType.ReadWrite,
@@ -346,6 +1244,54 @@ public class CLIJ {
                 pNativeType,
                 dimensions
         );
+        memoryAccounting.allocated(buffer);
+        AllocationScope.allocated(this, buffer);
+
+        if (metrics != null) {
+            metrics.record("allocate ClearCLBuffer", System.nanoTime() - startTime, buffer.getSizeInBytes());
+        }
+        return buffer;
+    }
+
+    private ClearCLBuffer getPooledBuffer(long[] dimensions, NativeTypeEnum pNativeType) {
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        // buffers recycled by an allocation scope of this thread are preferred: they were used by the same queue
+        ClearCLBuffer buffer = AllocationScope.getRecycledBuffer(this, dimensions, pNativeType, HostAccessType.ReadWrite, KernelAccessType.ReadWrite);
+        BufferPool pool = bufferPool;
+        if (buffer == null && pool != null) {
+            buffer = pool.getBuffer(dimensions, pNativeType, HostAccessType.ReadWrite, KernelAccessType.ReadWrite);
+        }
+        if (buffer == null) {
+            return null;
+        }
+        AllocationScope.allocated(this, buffer);
+
+        if (metrics != null) {
+            metrics.record("allocate pooled ClearCLBuffer", System.nanoTime() - startTime, buffer.getSizeInBytes());
+        }
+        return buffer;
+    }
+
+    private ClearCLImage getPooledImage(long[] dimensions, ImageChannelDataType pImageChannelType, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        MetricsRegistry metrics = metricsRegistry;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+
+        ClearCLImage image = AllocationScope.getRecycledImage(this, dimensions, pImageChannelType, hostAccessType, kernelAccessType);
+        BufferPool pool = bufferPool;
+        if (image == null && pool != null) {
+            image = pool.getImage(dimensions, pImageChannelType, hostAccessType, kernelAccessType);
+        }
+        if (image == null) {
+            return null;
+        }
+        AllocationScope.allocated(this, image);
+
+        if (metrics != null) {
+            metrics.record("allocate pooled ClearCLImage", System.nanoTime() - startTime, image.getSizeInBytes());
+        }
+        return image;
     }
 
     public void show(Object input, String title) {
@@ -366,10 +1312,36 @@ public class CLIJ {
 
     public boolean close() {
 
-        if (mCLKernelExecutor != null) {
-            mCLKernelExecutor.close();
-            mCLKernelExecutor = null;
+        finish();
+        executionGraph.closeReleasedImages();
+        if (bufferPool != null) {
+            bufferPool.clear();
+        }
+        if (hostSpilling != null) {
+            hostSpilling.close();
+            hostSpilling = null;
+        }
+        if (profiler != null) {
+            profiler.close();
+            profiler = null;
+        }
+        for (CLKernelExecutor executor : getAllCLKernelExecutors()) {
+            executor.close();
+            executor.getQueue().close();
         }
+        synchronized (mAllCLKernelExecutors) {
+            mAllCLKernelExecutors.clear();
+        }
+        // executors share the program cache; it's cleared once all of them are closed
+        programCache.clear();
+        synchronized (concurrentQueues) {
+            for (ClearCLQueue queue : concurrentQueues) {
+                queue.close();
+            }
+            concurrentQueues.clear();
+        }
+        // executors stored for other threads are not used anymore
+        mCLKernelExecutors = new ThreadLocal<CLKernelExecutor>();
         if (mClearCLDevice != null) {
             //mClearCLDevice.close(); // the devices close themselfes somehow...
             mClearCLDevice = null;
@@ -399,6 +1371,23 @@ public class CLIJ {
         return convert(imp, ClearCLBuffer.class);
     }
 
+    /**
+     * Pushes pixels stored in a direct ByteBuffer in native byte order. If host memory mapping is enabled, on
+     * CPU OpenCL devices and integrated GPUs the ByteBuffer is used as storage of the returned buffer; it must
+     * be kept and must not be accessed while the buffer is in use. Otherwise, the pixels are copied.
+     */
+    public ClearCLBuffer push(ByteBuffer directBuffer, long[] dimensions, NativeTypeEnum pNativeType) {
+        if (hostMemoryMapping) {
+            ClearCLBuffer buffer = HostMemoryMapping.wrap(mClearCLContext, directBuffer, pNativeType, dimensions);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        ClearCLBuffer buffer = createCLBuffer(dimensions, pNativeType);
+        buffer.readFrom(directBuffer, true);
+        return buffer;
+    }
+
     public ClearCLBuffer pushCurrentSlice(ImagePlus imp) {
         ImagePlus copy = new Duplicator().run(imp, imp.getC(), imp.getC(), imp.getZ(), imp.getZ(), imp.getT(), imp.getT());
         return push(copy);
@@ -442,6 +1431,15 @@ public class CLIJ {
         if (targetClass.isAssignableFrom(source.getClass())) {
             return (T) source;
         }
+        if (source instanceof SpillableBuffer) {
+            return convert(((SpillableBuffer) source).getBuffer(), targetClass);
+        }
+        flush();
+        // kernels of the calling thread may write the source
+        CLKernelExecutor executor = getCLKernelExecutor();
+        if (!executor.isFinished(executor.getEnqueuedKernelCount())) {
+            executor.finish();
+        }
         synchronized (this) {
             try {
                 if (converterService == null) {
@@ -453,8 +1451,18 @@ public class CLIJ {
             converterService.setCLIJ(this);
             CLIJConverterPlugin<S, T> converter = (CLIJConverterPlugin<S, T>) converterService.getConverter(source.getClass(), targetClass);
             converter.setCLIJ(this);
+
+            MetricsRegistry metrics = metricsRegistry;
+            long startTime = metrics == null ? 0 : System.nanoTime();
+
             T result = converter.convert(source);
 
+            if (metrics != null) {
+                metrics.record("convert " + source.getClass().getSimpleName() + " to " + targetClass.getSimpleName(),
+                        System.nanoTime() - startTime,
+                        getSizeInBytes(source) + getSizeInBytes(result));
+            }
+
             // this is because of the disabled cleaner thread in clij-coremem 0.5.2:
             //RessourceCleaner.cleanNow();
             //System.out.println("Cleaning2");
@@ -467,6 +1475,20 @@ public class CLIJ {
         return clijOps;
     }
 
+    /**
+     * Starts a chain of pixelwise operations which are executed as a single kernel.
+     *
+     * @param src input image
+     * @return fusion builder
+     */
+    public PixelwiseFusion fuse(ClearCLBuffer src) {
+        return new PixelwiseFusion(this, src);
+    }
+
+    public PixelwiseFusion fuse(ClearCLImage src) {
+        return new PixelwiseFusion(this, src);
+    }
+
     private static PrintStream stdErrStreamBackup;
     private static void forwardStdErr() {
         // forwarding stdErr temporarily is necessary to prevent a window popping up with error message from BridJ.
@@ -1,6 +1,10 @@
 package net.haesleinhuepf.clij.converters;
 
 import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.utilities.OpenCLProfiler;
+
+import java.nio.Buffer;
 
 /**
  * AbstractCLIJConverter
@@ -17,4 +21,28 @@ public abstract class AbstractCLIJConverter<S, T> implements CLIJConverterPlugin
     public void setCLIJ(CLIJ clij) {
         this.clij = clij;
     }
+
+    /**
+     * Copies the whole content of a buffer to the host. The transfer is profiled if profiling is enabled.
+     */
+    protected void writeTo(ClearCLBuffer source, Buffer target) {
+        OpenCLProfiler profiler = clij == null ? null : clij.getProfiler();
+        if (profiler != null) {
+            profiler.writeTo(source, target);
+        } else {
+            source.writeTo(target, true);
+        }
+    }
+
+    /**
+     * Copies the whole content of a host buffer to the device. The transfer is profiled if profiling is enabled.
+     */
+    protected void readFrom(ClearCLBuffer target, Buffer source) {
+        OpenCLProfiler profiler = clij == null ? null : clij.getProfiler();
+        if (profiler != null) {
+            profiler.readFrom(target, source);
+        } else {
+            target.readFrom(source, true);
+        }
+    }
 }
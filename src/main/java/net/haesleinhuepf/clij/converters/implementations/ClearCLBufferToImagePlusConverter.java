@@ -46,7 +46,7 @@ public class ClearCLBufferToImagePlusConverter extends AbstractCLIJConverter<Cle
                 result = NewImage.createByteImage("slice", width, height, depth, NewImage.FILL_BLACK);
                 byte[] array = new byte[(int) numberOfPixels];
                 ByteBuffer buffer = ByteBuffer.wrap(array);
-                source.writeTo(buffer, true);
+                writeTo(source, buffer);
 
                 for (int z = 0; z < depth; z++) {
                     result.setSlice(z + 1);
@@ -58,7 +58,7 @@ public class ClearCLBufferToImagePlusConverter extends AbstractCLIJConverter<Cle
 
                 short[] array = new short[(int) numberOfPixels];
                 ShortBuffer buffer = ShortBuffer.wrap(array);
-                source.writeTo(buffer, true);
+                writeTo(source, buffer);
 
                 for (int z = 0; z < depth; z++) {
                     result.setSlice(z + 1);
@@ -70,7 +70,7 @@ public class ClearCLBufferToImagePlusConverter extends AbstractCLIJConverter<Cle
 
                 float[] array = new float[(int) numberOfPixels];
                 FloatBuffer buffer = FloatBuffer.wrap(array);
-                source.writeTo(buffer, true);
+                writeTo(source, buffer);
 
                 for (int z = 0; z < depth; z++) {
                     result.setSlice(z + 1);
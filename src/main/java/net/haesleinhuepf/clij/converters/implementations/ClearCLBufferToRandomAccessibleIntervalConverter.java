@@ -51,7 +51,7 @@ public class ClearCLBufferToRandomAccessibleIntervalConverter extends AbstractCL
             source.getNativeType() == NativeTypeEnum.UnsignedByte) {
 
             ByteBuffer byteBuffer = ByteBuffer.allocate(numberOfPixels);
-            source.writeTo(byteBuffer, true);
+            writeTo(source, byteBuffer);
             if (source.getNativeType() == NativeTypeEnum.Byte) {
                 return ArrayImgs.bytes(byteBuffer.array(), dimensions);
             } else {
@@ -65,7 +65,7 @@ public class ClearCLBufferToRandomAccessibleIntervalConverter extends AbstractCL
                    source.getNativeType() == NativeTypeEnum.UnsignedShort) {
 
             ShortBuffer shortBuffer = ShortBuffer.allocate(numberOfPixels);
-            source.writeTo(shortBuffer, true);
+            writeTo(source, shortBuffer);
             if (source.getNativeType() == NativeTypeEnum.Short) {
                 return ArrayImgs.shorts(shortBuffer.array(), dimensions);
             } else {
@@ -74,7 +74,7 @@ public class ClearCLBufferToRandomAccessibleIntervalConverter extends AbstractCL
         } else if (source.getNativeType() == NativeTypeEnum.Float) {
 
             FloatBuffer floatBuff = FloatBuffer.allocate(numberOfPixels);
-            source.writeTo(floatBuff, true);
+            writeTo(source, floatBuff);
             return ArrayImgs.floats(floatBuff.array(), dimensions);
         } else {
             throw new UnknownFormatConversionException(
@@ -2,16 +2,22 @@ package net.haesleinhuepf.clij.converters.implementations;
 
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.coremem.offheap.OffHeapMemory;
 import ij.ImagePlus;
+import ij.ImageStack;
 import net.haesleinhuepf.clij.converters.AbstractCLIJConverter;
 import net.haesleinhuepf.clij.converters.CLIJConverterPlugin;
+import net.haesleinhuepf.clij.utilities.HostMemoryMapping;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import org.scijava.plugin.Plugin;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.stream.IntStream;
 
 /**
  * ImagePlusToRandomAccessibleIntervalConverter
@@ -31,34 +37,28 @@ public class ImagePlusToClearCLBufferConverter extends AbstractCLIJConverter<Ima
 
     final long SMALL_IMAGE_SIZE = Integer.MAX_VALUE;
 
-    private void setThirdDimension(ImagePlus imp, int thirdDimension, int value) {
-        if (thirdDimension == THIRD_DIMENSION_Z) {
-            imp.setZ(value);
-        } else if (thirdDimension == THIRD_DIMENSION_C) {
-            imp.setC(value);
-        } else if (thirdDimension == THIRD_DIMENSION_T) {
-            imp.setT(value);
-        }
-    }
-
-    private int getThirdDimension(ImagePlus imp, int thirdDimension) {
-        if (thirdDimension == THIRD_DIMENSION_Z) {
-            return imp.getZ();
-        } else if (thirdDimension == THIRD_DIMENSION_C) {
-            return imp.getC();
-        } else if (thirdDimension == THIRD_DIMENSION_T) {
-            return imp.getT();
+    /**
+     * @return indices of the planes to push in the stack of the given image. The current position of the
+     * image is used for all dimensions except the third one.
+     */
+    private int[] getStackIndices(ImagePlus imp, int thirdDimension, int depth) {
+        int[] stackIndices = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            if (thirdDimension == THIRD_DIMENSION_Z) {
+                stackIndices[i] = imp.getStackIndex(imp.getC(), i + 1, imp.getT());
+            } else if (thirdDimension == THIRD_DIMENSION_C) {
+                stackIndices[i] = imp.getStackIndex(i + 1, imp.getZ(), imp.getT());
+            } else if (thirdDimension == THIRD_DIMENSION_T) {
+                stackIndices[i] = imp.getStackIndex(imp.getC(), imp.getZ(), i + 1);
+            } else {
+                stackIndices[i] = imp.getStackIndex(imp.getC(), imp.getZ(), imp.getT());
+            }
         }
-        return imp.getZ();
+        return stackIndices;
     }
 
     @Override
     public ClearCLBuffer convert(ImagePlus source) {
-        //long time = System.currentTimeMillis();
-        //convertLegacy(source).close();
-        //IJ.log("legacy conv took " + (System.currentTimeMillis() - time));
-        //long time2 = System.currentTimeMillis();
-
         long[] dimensions = null; // = new long[source.getNSlices() == 1?2:3];
         int thirdDimension;
         // check what's the third dimension
@@ -76,125 +76,109 @@ public class ImagePlusToClearCLBufferConverter extends AbstractCLIJConverter<Ima
             thirdDimension = THIRD_DIMENSION_NONE;
         }
 
-        int numberOfPixelsPerSlice = (int)(dimensions[0] * dimensions[1]);
-        long numberOfPixels = numberOfPixelsPerSlice;
-        if (thirdDimension != THIRD_DIMENSION_NONE) {
-            numberOfPixels = numberOfPixels * dimensions[2];
-        }
-
-        int thirdDimensionBefore = getThirdDimension(source, thirdDimension);
-
-        if (numberOfPixels > SMALL_IMAGE_SIZE) {
-            return convertBigImage(source, dimensions, numberOfPixels, numberOfPixelsPerSlice, thirdDimension, thirdDimensionBefore);
-        }
-
-
-        //NativeTypeEnum type;
+        NativeTypeEnum type;
         if (source.getBitDepth() == 8) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.UnsignedByte);
-
-            byte[] inputArray = new byte[(int) numberOfPixels];
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
-
-                byte[] sourceArray = (byte[])(source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, z * numberOfPixelsPerSlice, sourceArray.length);
-            }
-            ByteBuffer byteBuffer = ByteBuffer.wrap(inputArray);
-            target.readFrom(byteBuffer, true);
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
-            return target;
-
+            type = NativeTypeEnum.UnsignedByte;
         } else if (source.getBitDepth() == 16) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.UnsignedShort);
-
-            //time = System.currentTimeMillis();
-            short[] inputArray = new short[(int) numberOfPixels];
-            //IJ.log("Alloc took " + (System.currentTimeMillis() - time));
-
-            //time = System.currentTimeMillis();
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
-
-                short[] sourceArray = (short[])(source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, z * numberOfPixelsPerSlice, sourceArray.length);
-            }
-            //IJ.log("Copy1 took " + (System.currentTimeMillis() - time));
-
-            ShortBuffer byteBuffer = ShortBuffer.wrap(inputArray);
-            //time = System.currentTimeMillis();
-            target.readFrom(byteBuffer, true);
-            //IJ.log("Copy2 took " + (System.currentTimeMillis() - time));
-            //IJ.log("conv took " + (System.currentTimeMillis() - time2));
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
-            return target;
-        } else  if (source.getBitDepth() == 32) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.Float);
-
-            float[] inputArray = new float[(int) numberOfPixels];
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
-
-                float[] sourceArray = (float[])(source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, z * numberOfPixelsPerSlice, sourceArray.length);
-            }
-            FloatBuffer byteBuffer = FloatBuffer.wrap(inputArray);
-            target.readFrom(byteBuffer, true);
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
-            return target;
+            type = NativeTypeEnum.UnsignedShort;
+        } else if (source.getBitDepth() == 32) {
+            type = NativeTypeEnum.Float;
         } else {
             return convertLegacy(source);
         }
-    }
-
-    private ClearCLBuffer convertBigImage(ImagePlus source, long[] dimensions, long numberOfPixels, int numberOfPixelsPerSlice, int thirdDimension, int thirdDimensionBefore) {
-        if (source.getBitDepth() == 8) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.UnsignedByte);
 
-            byte[] inputArray = new byte[(int) numberOfPixelsPerSlice];
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
+        int numberOfPixelsPerSlice = (int)(dimensions[0] * dimensions[1]);
+        int depth = thirdDimension == THIRD_DIMENSION_NONE ? 1 : (int) dimensions[2];
 
-                byte[] sourceArray = (byte[]) (source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, 0, sourceArray.length);
+        // pixels are read from the stack directly; the position of the ImagePlus isn't changed
+        ImageStack stack = source.getStack();
+        int[] stackIndices = getStackIndices(source, thirdDimension, depth);
 
-                ByteBuffer byteBuffer = ByteBuffer.wrap(inputArray);
-                target.readFrom(byteBuffer, new long[]{0,0,0}, new long[]{0,0, z}, new long[]{dimensions[0], dimensions[1]}, true);
-            }
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
+        ClearCLBuffer target = clij.createCLBuffer(dimensions, type);
+        if (target.getSizeInBytes() > SMALL_IMAGE_SIZE) {
+            convertBigImage(stack, stackIndices, target, dimensions);
             return target;
-        } else if (source.getBitDepth() == 16) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.UnsignedShort);
-
-            short[] inputArray = new short[(int) numberOfPixelsPerSlice];
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
-
-                short[] sourceArray = (short[]) (source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, 0, sourceArray.length);
+        }
 
-                ShortBuffer byteBuffer = ShortBuffer.wrap(inputArray);
-                target.readFrom(byteBuffer, new long[]{0,0,0}, new long[]{0,0, z}, new long[]{dimensions[0], dimensions[1]}, true);
+        ByteBuffer mapped = map(target);
+        if (mapped != null) {
+            gatherSlices(stack, stackIndices, mapped, numberOfPixelsPerSlice);
+            HostMemoryMapping.unmap(clij.getClearCLContext(), target, mapped);
+        } else {
+            // staging memory is freed right away; direct ByteBuffers would only be freed by the garbage collector
+            OffHeapMemory staging = OffHeapMemory.allocateBytes(target.getSizeInBytes());
+            try {
+                ByteBuffer stagingBuffer = staging.getByteBuffer().order(ByteOrder.nativeOrder());
+                gatherSlices(stack, stackIndices, stagingBuffer, numberOfPixelsPerSlice);
+                readFrom(target, stagingBuffer);
+            } finally {
+                staging.free();
             }
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
-            return target;
-        } else if (source.getBitDepth() == 32) {
-            ClearCLBuffer target = clij.createCLBuffer(dimensions, NativeTypeEnum.Float);
+        }
+        return target;
+    }
 
-            float[] inputArray = new float[(int) numberOfPixelsPerSlice];
-            for (int z = 0; z < target.getDepth(); z++) {
-                setThirdDimension(source, thirdDimension, z + 1);
+    /**
+     * Copies the pixels of the given planes one after another into the given buffer. Planes are copied in
+     * parallel, except planes of virtual stacks which are read from disk one by one.
+     */
+    private void gatherSlices(ImageStack stack, int[] stackIndices, ByteBuffer target, int numberOfPixelsPerSlice) {
+        IntStream planes = IntStream.range(0, stackIndices.length);
+        if (!stack.isVirtual()) {
+            planes = planes.parallel();
+        }
+        planes.forEach(z -> {
+            Object pixels = stack.getPixels(stackIndices[z]);
+            // every thread works on its own view of the buffer; duplicate() doesn't keep the byte order
+            ByteBuffer view = target.duplicate().order(target.order());
+            if (pixels instanceof byte[]) {
+                view.position(z * numberOfPixelsPerSlice);
+                view.put((byte[]) pixels, 0, numberOfPixelsPerSlice);
+            } else if (pixels instanceof short[]) {
+                ShortBuffer shortBuffer = view.asShortBuffer();
+                shortBuffer.position(z * numberOfPixelsPerSlice);
+                shortBuffer.put((short[]) pixels, 0, numberOfPixelsPerSlice);
+            } else if (pixels instanceof float[]) {
+                FloatBuffer floatBuffer = view.asFloatBuffer();
+                floatBuffer.position(z * numberOfPixelsPerSlice);
+                floatBuffer.put((float[]) pixels, 0, numberOfPixelsPerSlice);
+            } else {
+                throw new IllegalArgumentException("Error: Unsupported pixel type " + pixels);
+            }
+        });
+    }
 
-                float[] sourceArray = (float[]) (source.getProcessor().getPixels());
-                System.arraycopy(sourceArray, 0, inputArray, 0, sourceArray.length);
+    /**
+     * On devices sharing memory with the host, pixels are written to the mapped buffer directly instead of
+     * being collected in a staging buffer and copied afterwards.
+     *
+     * @return mapped memory of the target or null if mapping isn't possible
+     */
+    private ByteBuffer map(ClearCLBuffer target) {
+        if (clij.getProfiler() != null || !clij.isHostMemoryMappingUsed()) {
+            return null;
+        }
+        // a pooled target may still be used by kernels enqueued to the queue of this thread
+        clij.finishCurrentThread();
+        return HostMemoryMapping.map(clij.getClearCLContext(), target);
+    }
 
-                FloatBuffer byteBuffer = FloatBuffer.wrap(inputArray);
-                target.readFrom(byteBuffer, new long[]{0,0,0}, new long[]{0,0, z}, new long[]{dimensions[0], dimensions[1]}, true);
+    /**
+     * Images exceeding the size of a Java buffer are pushed slice by slice.
+     */
+    private void convertBigImage(ImageStack stack, int[] stackIndices, ClearCLBuffer target, long[] dimensions) {
+        for (int z = 0; z < stackIndices.length; z++) {
+            Object pixels = stack.getPixels(stackIndices[z]);
+            Buffer buffer;
+            if (pixels instanceof byte[]) {
+                buffer = ByteBuffer.wrap((byte[]) pixels);
+            } else if (pixels instanceof short[]) {
+                buffer = ShortBuffer.wrap((short[]) pixels);
+            } else {
+                buffer = FloatBuffer.wrap((float[]) pixels);
             }
-            setThirdDimension(source, thirdDimension, thirdDimensionBefore);
-            return target;
+            target.readFrom(buffer, new long[]{0,0,0}, new long[]{0,0, z}, new long[]{dimensions[0], dimensions[1]}, true);
         }
-        return null;
     }
 
     public ClearCLBuffer convertLegacy(ImagePlus source) {
@@ -8,6 +8,8 @@ import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
 import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
 import net.haesleinhuepf.clij.CLIJ;
 import net.haesleinhuepf.clij.utilities.AffineTransform;
+import net.haesleinhuepf.clij.utilities.AllocationScope;
+import net.haesleinhuepf.clij.utilities.BufferViews;
 import net.haesleinhuepf.clij.utilities.CLKernelExecutor;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
@@ -17,7 +19,11 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static net.haesleinhuepf.clij.utilities.CLIJUtilities.*;
 
@@ -45,7 +51,7 @@ public class Kernels {
     }
 
     public static boolean absolute(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst) {
-        assertDifferent(src, dst);
+        assertDifferentOrInPlaceSafe("absolute", src, dst);
 
         HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("src", src);
@@ -106,7 +112,7 @@ public class Kernels {
 
 
     public static boolean addImageAndScalar(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst, Float scalar) {
-        assertDifferent(src, dst);
+        assertDifferentOrInPlaceSafe("addImageAndScalar", src, dst);
 
         HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("src", src);
@@ -169,7 +175,7 @@ public class Kernels {
 
         boolean result = clij.execute(Kernels.class, "affineTransforms2D.cl", "affine_2D", parameters);
 
-        matrixCl.close();
+        clij.release(matrixCl);
 
         return result;
     }
@@ -197,7 +203,7 @@ public class Kernels {
 
         boolean result = clij.execute(Kernels.class, "affineTransforms_interpolate2D.cl", "affine_interpolate2D", parameters);
 
-        matrixCl.close();
+        clij.release(matrixCl);
 
         return result;
     }
@@ -245,7 +251,7 @@ public class Kernels {
 
         boolean result = clij.execute(Kernels.class, "affineTransforms.cl", "affine", parameters);
 
-        matrixCl.close();
+        clij.release(matrixCl);
 
         return result;
     }
@@ -273,7 +279,7 @@ public class Kernels {
 
         boolean result = clij.execute(Kernels.class, "affineTransforms_interpolate.cl", "affine_interpolate", parameters);
 
-        matrixCl.close();
+        clij.release(matrixCl);
 
         return result;
     }
@@ -382,7 +388,7 @@ public class Kernels {
         }
 
 
-        ClearCLBuffer histogram = clij.createCLBuffer(new long[]{numberOfBins,1,1}, NativeTypeEnum.Float);
+        ClearCLBuffer histogram = clij.createTemporary(new long[]{numberOfBins, 1, 1}, NativeTypeEnum.Float);
         Kernels.fillHistogram(clij, src, histogram, minimumGreyValue, maximumGreyValue);
         //releaseBuffers(args);
 
@@ -390,7 +396,7 @@ public class Kernels {
 
         // the histogram is written in args[1] which is supposed to be a one-dimensional image
         ImagePlus histogramImp = clij.convert(histogram, ImagePlus.class);
-        histogram.close();
+        clij.release(histogram);
 
         // convert histogram
         float[] determinedHistogram = (float[])(histogramImp.getProcessor().getPixels());
@@ -566,6 +572,71 @@ public class Kernels {
         return executeSeparableKernel(clij, src, dst, "blur.cl", "gaussian_blur_sep_image" + src.getDimension() + "d", sigmaToKernelSize(blurSigmaX), sigmaToKernelSize(blurSigmaY), sigmaToKernelSize(blurSigmaZ), blurSigmaX, blurSigmaY, blurSigmaZ, src.getDimension());
     }
 
+    /**
+     * Blurs every image of the src list into the corresponding image of the dst list, e.g. all frames of a
+     * time-lapse. If all images are float images of the same size, the passes of all frames are enqueued
+     * back-to-back as one batch sharing the same temporary images.
+     */
+    public static boolean blurBatch(CLIJ clij, List<ClearCLBuffer> src, List<ClearCLBuffer> dst, Float blurSigmaX, Float blurSigmaY, Float blurSigmaZ) {
+        assertSameSize(src, dst);
+        if (src.isEmpty()) {
+            return true;
+        }
+
+        ClearCLBuffer first = src.get(0);
+        int dimensions = (int) first.getDimension();
+        float[] blurSigma = new float[]{blurSigmaX, blurSigmaY, blurSigmaZ};
+        boolean batchable = blurSigma[0] > 0 && blurSigma[1] > 0 && (dimensions == 2 || (dimensions == 3 && blurSigma[2] > 0));
+        for (int i = 0; i < src.size() && batchable; i++) {
+            assertDifferent(src.get(i), dst.get(i));
+            batchable = isFloatOfSameSize(first, src.get(i)) && isFloatOfSameSize(first, dst.get(i));
+        }
+        if (!batchable) {
+            boolean result = true;
+            for (int i = 0; i < src.size(); i++) {
+                result = blur(clij, src.get(i), dst.get(i), blurSigmaX, blurSigmaY, blurSigmaZ) && result;
+            }
+            return result;
+        }
+
+        ClearCLBuffer temp1 = clij.createTemporary(first.getDimensions(), NativeTypeEnum.Float);
+        ClearCLBuffer temp2 = dimensions == 3 ? clij.createTemporary(first.getDimensions(), NativeTypeEnum.Float) : null;
+
+        // all passes of all frames share one kernel; the in-order queue keeps temporary images consistent
+        ArrayList<Map<String, Object>> parameterMaps = new ArrayList<>();
+        for (int i = 0; i < src.size(); i++) {
+            Object[] images = dimensions == 2 ?
+                    new Object[]{src.get(i), temp1, dst.get(i)} :
+                    new Object[]{src.get(i), temp2, temp1, dst.get(i)};
+            for (int d = 0; d < dimensions; d++) {
+                HashMap<String, Object> parameters = new HashMap<>();
+                parameters.put("N", sigmaToKernelSize(blurSigma[d]));
+                parameters.put("s", blurSigma[d]);
+                parameters.put("dim", d);
+                parameters.put("src", images[d]);
+                parameters.put("dst", images[d + 1]);
+                parameterMaps.add(parameters);
+            }
+        }
+        boolean result = clij.executeBatch(Kernels.class, "blur.cl", "gaussian_blur_sep_image" + dimensions + "d", null, parameterMaps);
+
+        clij.release(temp1);
+        if (temp2 != null) {
+            clij.release(temp2);
+        }
+        return result;
+    }
+
+    private static boolean isFloatOfSameSize(ClearCLBuffer reference, ClearCLBuffer buffer) {
+        return buffer.getNativeType() == NativeTypeEnum.Float && Arrays.equals(reference.getDimensions(), buffer.getDimensions());
+    }
+
+    private static void assertSameSize(List src, List dst) {
+        if (src.size() != dst.size()) {
+            throw new IllegalArgumentException("Error: number of src images (" + src.size() + ") and dst images (" + dst.size() + ") don't match!");
+        }
+    }
+
     public static boolean convertToImageJBinary(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst) {
         assertDifferent(src, dst);
         HashMap<String, Object> parameters = new HashMap<>();
@@ -656,89 +727,85 @@ public class Kernels {
         int[] n = new int[]{kernelSizeX, kernelSizeY, kernelSizeZ};
         float[] blurSigma = new float[]{blurSigmaX, blurSigmaY, blurSigmaZ};
 
-        Object temp1;
-        Object temp2;
-        if (src instanceof ClearCLBuffer) {
-            temp1 = clij.create(((ClearCLBuffer) src).getDimensions(), NativeTypeEnum.Float);
-            temp2 = clij.create(((ClearCLBuffer) src).getDimensions(), NativeTypeEnum.Float);
+        // axes with sigma / radius 0 are skipped without copying
+        ArrayList<Integer> axes = new ArrayList<>();
+        for (int d = 0; d < dimensions; d++) {
+            if (blurSigma[d] > 0) {
+                axes.add(d);
+            }
+        }
+        if (axes.isEmpty()) {
+            return Kernels.copyInternal(clij, src, dst, dimensions, dimensions);
+        }
+
+        long[] srcDimensions;
+        boolean dstIsFloat;
+        if (src instanceof ClearCLBuffer && dst instanceof ClearCLBuffer) {
+            srcDimensions = ((ClearCLBuffer) src).getDimensions();
+            dstIsFloat = ((ClearCLBuffer) dst).getNativeType() == NativeTypeEnum.Float;
         } else if (src instanceof ClearCLImage) {
-            temp1 = clij.create(((ClearCLImage) src).getDimensions(), ImageChannelDataType.Float);
-            temp2 = clij.create(((ClearCLImage) src).getDimensions(), ImageChannelDataType.Float);
+            srcDimensions = ((ClearCLImage) src).getDimensions();
+            dstIsFloat = dst instanceof ClearCLImage && ((ClearCLImage) dst).getChannelDataType() == ImageChannelDataType.Float;
+        } else if (src instanceof ClearCLBuffer) {
+            srcDimensions = ((ClearCLBuffer) src).getDimensions();
+            dstIsFloat = false;
         } else {
             throw new IllegalArgumentException("Error: Wrong type of images in blurFast");
         }
 
-        HashMap<String, Object> parameters = new HashMap<>();
-
-        if (blurSigma[0] > 0) {
-            parameters.clear();
-            parameters.put("N", n[0]);
-            parameters.put("s", blurSigma[0]);
-            parameters.put("dim", 0);
-            parameters.put("src", src);
-            if (dimensions == 2) {
-                parameters.put("dst", temp1);
-            } else {
-                parameters.put("dst", temp2);
-            }
-            clij.execute(Kernels.class, clFilename, kernelname, parameters);
-        } else {
-            if (dimensions == 2) {
-                Kernels.copyInternal(clij, src, temp1, 2, 2);
+        // Intermediate results are float images. Images are used in ping-pong fashion; dst stores an
+        // intermediate result if it's a float image. Thus, at most one temporary image is necessary, except for
+        // three axes and a non-float dst:
+        //   one axis:                 src -> dst
+        //   two axes:                 src -> temp1 -> dst
+        //   three axes, float dst:    src -> dst -> temp1 -> dst
+        //   three axes, other dst:    src -> temp1 -> temp2 -> dst
+        ArrayList<Object> images = new ArrayList<>();
+        ArrayList<Object> temporaries = new ArrayList<>();
+        images.add(src);
+        if (axes.size() == 2) {
+            images.add(createSeparableTemporary(clij, src, srcDimensions, temporaries));
+        } else if (axes.size() == 3) {
+            if (dstIsFloat) {
+                images.add(dst);
+                images.add(createSeparableTemporary(clij, src, srcDimensions, temporaries));
             } else {
-                Kernels.copyInternal(clij, src, temp2, 3, 3);
+                images.add(createSeparableTemporary(clij, src, srcDimensions, temporaries));
+                images.add(createSeparableTemporary(clij, src, srcDimensions, temporaries));
             }
         }
+        images.add(dst);
 
-        if (blurSigma[1] > 0) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        for (int i = 0; i < axes.size(); i++) {
+            int d = axes.get(i);
             parameters.clear();
-            parameters.put("N", n[1]);
-            parameters.put("s", blurSigma[1]);
-            parameters.put("dim", 1);
-            if (dimensions == 2) {
-                parameters.put("src", temp1);
-                parameters.put("dst", dst);
-            } else {
-                parameters.put("src", temp2);
-                parameters.put("dst", temp1);
-            }
+            parameters.put("N", n[d]);
+            parameters.put("s", blurSigma[d]);
+            parameters.put("dim", d);
+            parameters.put("src", images.get(i));
+            parameters.put("dst", images.get(i + 1));
             clij.execute(Kernels.class, clFilename, kernelname, parameters);
-        } else {
-            if (dimensions == 2) {
-                Kernels.copyInternal(clij, temp1, dst, 2, 2);
-            } else {
-                Kernels.copyInternal(clij, temp2, temp1, 3, 3);
-            }
         }
 
-        if (dimensions == 3) {
-            if (blurSigma[2] > 0) {
-                parameters.clear();
-                parameters.put("N", n[2]);
-                parameters.put("s", blurSigma[2]);
-                parameters.put("dim", 2);
-                parameters.put("src", temp1);
-                parameters.put("dst", dst);
-                clij.execute(Kernels.class,
-                        clFilename,
-                        kernelname,
-                        parameters);
-            } else {
-                Kernels.copyInternal(clij, temp1, dst,3, 3);
-            }
-        }
-
-        if (temp1 instanceof ClearCLBuffer) {
-            ((ClearCLBuffer) temp1).close();
-            ((ClearCLBuffer) temp2).close();
-        } else if (temp1 instanceof ClearCLImage) {
-            ((ClearCLImage) temp1).close();
-            ((ClearCLImage) temp2).close();
+        for (Object temporary : temporaries) {
+            clij.release(temporary);
         }
 
         return true;
     }
 
+    private static Object createSeparableTemporary(CLIJ clij, Object src, long[] dimensions, ArrayList<Object> temporaries) {
+        Object temporary;
+        if (src instanceof ClearCLBuffer) {
+            temporary = clij.createTemporary(dimensions, NativeTypeEnum.Float);
+        } else {
+            temporary = clij.createTemporary(dimensions, ImageChannelDataType.Float);
+        }
+        temporaries.add(temporary);
+        return temporary;
+    }
+
     public static boolean blurSliceBySlice(CLIJ clij, ClearCLImage src, ClearCLImage dst, Integer kernelSizeX, Integer kernelSizeY, Float sigmaX, Float sigmaY) {
         assertDifferent(src, dst);
 
@@ -766,7 +833,6 @@ public class Kernels {
     }
 
     public static double[] centerOfMass(CLIJ clij, ClearCLBuffer input) {
-        ClearCLBuffer multipliedWithCoordinate = clij.create(input.getDimensions(), NativeTypeEnum.Float);
         double sum = clij.op().sumPixels(input);
         double[] resultCenterOfMass;
         if (input.getDimension() > 2L && input.getDepth() > 1L) {
@@ -775,25 +841,20 @@ public class Kernels {
             resultCenterOfMass = new double[2];
         }
 
-        clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 0);
-        double sumX = clij.op().sumPixels(multipliedWithCoordinate);
-        resultCenterOfMass[0] = sumX / sum;
-        clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 1);
-        double sumY = clij.op().sumPixels(multipliedWithCoordinate);
-        resultCenterOfMass[1] = sumY / sum;
-        if (input.getDimension() > 2L && input.getDepth() > 1L) {
-            clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 2);
-            double sumZ = clij.op().sumPixels(multipliedWithCoordinate);
-            resultCenterOfMass[2] = sumZ / sum;
+        // temporary images are released by the scope, also if an exception is thrown
+        try (AllocationScope scope = clij.openScope()) {
+            // one temporary is reused for all axes to keep peak memory low
+            ClearCLBuffer multipliedWithCoordinate = clij.createTemporary(input.getDimensions(), NativeTypeEnum.Float);
+            for (int d = 0; d < resultCenterOfMass.length; d++) {
+                clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, d);
+                resultCenterOfMass[d] = clij.op().sumPixels(multipliedWithCoordinate) / sum;
+            }
         }
-
-        multipliedWithCoordinate.close();
         return resultCenterOfMass;
     }
 
 
     public static double[] centerOfMass(CLIJ clij, ClearCLImage input) {
-        ClearCLImage multipliedWithCoordinate = clij.create(input.getDimensions(), ImageChannelDataType.Float);
         double sum = clij.op().sumPixels(input);
         double[] resultCenterOfMass;
         if (input.getDimension() > 2L && input.getDepth() > 1L) {
@@ -802,19 +863,15 @@ public class Kernels {
             resultCenterOfMass = new double[2];
         }
 
-        clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 0);
-        double sumX = clij.op().sumPixels(multipliedWithCoordinate);
-        resultCenterOfMass[0] = sumX / sum;
-        clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 1);
-        double sumY = clij.op().sumPixels(multipliedWithCoordinate);
-        resultCenterOfMass[1] = sumY / sum;
-        if (input.getDimension() > 2L && input.getDepth() > 1L) {
-            clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, 2);
-            double sumZ = clij.op().sumPixels(multipliedWithCoordinate);
-            resultCenterOfMass[2] = sumZ / sum;
+        // temporary images are released by the scope, also if an exception is thrown
+        try (AllocationScope scope = clij.openScope()) {
+            // one temporary is reused for all axes to keep peak memory low
+            ClearCLImage multipliedWithCoordinate = clij.createTemporary(input.getDimensions(), ImageChannelDataType.Float);
+            for (int d = 0; d < resultCenterOfMass.length; d++) {
+                clij.op().multiplyImageAndCoordinate(input, multipliedWithCoordinate, d);
+                resultCenterOfMass[d] = clij.op().sumPixels(multipliedWithCoordinate) / sum;
+            }
         }
-
-        multipliedWithCoordinate.close();
         return resultCenterOfMass;
     }
 
@@ -1378,7 +1435,7 @@ public class Kernels {
         Kernels.sumZProjection(clij, partialHistograms, dstHistogram);
         //IJ.log("Histogram generation took " + (System.currentTimeMillis() - timeStamp) + " msec");
 
-        partialHistograms.close();
+        clij.release(partialHistograms);
         return true;
     }
 
@@ -1453,7 +1510,7 @@ public class Kernels {
     }
 
     public static float[] histogram(CLIJ clij, ClearCLBuffer image, Float minGreyValue, Float maxGreyValue, Integer numberOfBins) {
-        ClearCLBuffer histogram = clij.createCLBuffer(new long[]{numberOfBins, 1, 1}, NativeTypeEnum.Float);
+        ClearCLBuffer histogram = clij.createTemporary(new long[]{numberOfBins, 1, 1}, NativeTypeEnum.Float);
 
         if (minGreyValue == null) {
             minGreyValue = new Double(Kernels.minimumOfAllPixels(clij, image)).floatValue();
@@ -1465,7 +1522,7 @@ public class Kernels {
         Kernels.fillHistogram(clij, image, histogram, minGreyValue, maxGreyValue);
 
         ImagePlus histogramImp = clij.convert(histogram, ImagePlus.class);
-        histogram.close();
+        clij.release(histogram);
 
         float[] determinedHistogram = (float[])(histogramImp.getProcessor().getPixels());
         return determinedHistogram;
@@ -1525,7 +1582,7 @@ public class Kernels {
     }
 
     public static boolean invert(CLIJ clij, ClearCLBuffer input3d, ClearCLBuffer output3d) {
-        assertDifferent(input3d, output3d);
+        assertDifferentOrInPlaceSafe("invert", input3d, output3d);
 
         return multiplyImageAndScalar(clij, input3d, output3d, -1f);
     }
@@ -1868,6 +1925,22 @@ public class Kernels {
         return true;
     }
 
+    public static boolean maximumZProjectionBatch(CLIJ clij, List<ClearCLBuffer> src, List<ClearCLBuffer> dst_max) {
+        assertSameSize(src, dst_max);
+
+        ArrayList<Map<String, Object>> parameterMaps = new ArrayList<>();
+        for (int i = 0; i < src.size(); i++) {
+            assertDifferent(src.get(i), dst_max.get(i));
+
+            HashMap<String, Object> parameters = new HashMap<>();
+            parameters.put("src", src.get(i));
+            parameters.put("dst_max", dst_max.get(i));
+            parameterMaps.add(parameters);
+        }
+
+        return clij.executeBatch(Kernels.class, "maxProjection.cl", "max_project_3d_2d", null, parameterMaps);
+    }
+
     public static boolean minimumZProjection(CLIJ clij, ClearCLImage src, ClearCLImage dst_min) {
         assertDifferent(src, dst_min);
 
@@ -2418,7 +2491,7 @@ public class Kernels {
     }
 
     public static boolean multiplyImageAndScalar(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst, Float scalar) {
-        assertDifferent(src, dst);
+        assertDifferentOrInPlaceSafe("multiplyImageAndScalar", src, dst);
 
         HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("src", src);
@@ -2451,7 +2524,7 @@ public class Kernels {
         map.put("dst", dst);
         boolean result = clij.execute(Kernels.class, "math" + src.getDimension() + "D.cl", "multiplySliceBySliceWithScalars", map);
 
-        clBuffer.close();
+        clij.release(clBuffer);
 
         return result;
     }
@@ -2476,7 +2549,7 @@ public class Kernels {
         map.put("dst", dst);
         boolean result = clij.execute(Kernels.class, "math" + src.getDimension() + "D.cl", "multiplySliceBySliceWithScalars", map);
 
-        clBuffer.close();
+        clij.release(clBuffer);
 
         return result;
     }
@@ -2513,7 +2586,7 @@ public class Kernels {
     }
 
     public static boolean power(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst, Float exponent) {
-        assertDifferent(src, dst);
+        assertDifferentOrInPlaceSafe("power", src, dst);
 
         HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("src", src);
@@ -2767,7 +2840,7 @@ public class Kernels {
     public static double maximumOfAllPixels(CLIJ clij, ClearCLImage clImage) {
         ClearCLImage clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLImage(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getChannelDataType());
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getChannelDataType());
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2786,7 +2859,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return maximumGreyValue;
     }
@@ -2794,7 +2867,7 @@ public class Kernels {
     public static double maximumOfAllPixels(CLIJ clij, ClearCLBuffer clImage) {
         ClearCLBuffer clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLBuffer(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getNativeType());
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getNativeType());
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2813,7 +2886,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return maximumGreyValue;
     }
@@ -2821,7 +2894,7 @@ public class Kernels {
     public static double minimumOfAllPixels(CLIJ clij, ClearCLImage clImage) {
         ClearCLImage clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLImage(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getChannelDataType());
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getChannelDataType());
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2840,7 +2913,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return minimumGreyValue;
     }
@@ -2848,7 +2921,7 @@ public class Kernels {
     public static double minimumOfAllPixels(CLIJ clij, ClearCLBuffer clImage) {
         ClearCLBuffer clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLBuffer(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getNativeType());
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, clImage.getNativeType());
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2867,7 +2940,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return minimumGreyValue;
     }
@@ -2875,7 +2948,7 @@ public class Kernels {
     public static double sumPixels(CLIJ clij, ClearCLImage clImage) {
         ClearCLImage clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLImage(new long[]{clImage.getWidth(), clImage.getHeight()}, ImageChannelDataType.Float);
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, ImageChannelDataType.Float);
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2891,7 +2964,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return sum;
     }
@@ -2899,7 +2972,7 @@ public class Kernels {
     public static double sumPixels(CLIJ clij, ClearCLBuffer clImage) {
         ClearCLBuffer clReducedImage = clImage;
         if (clImage.getDimension() == 3) {
-            clReducedImage = clij.createCLBuffer(new long[]{clImage.getWidth(), clImage.getHeight()}, NativeTypeEnum.Float);
+            clReducedImage = clij.createTemporary(new long[]{clImage.getWidth(), clImage.getHeight()}, NativeTypeEnum.Float);
 
             HashMap<String, Object> parameters = new HashMap<>();
             parameters.put("src", clImage);
@@ -2915,7 +2988,7 @@ public class Kernels {
         }
 
         if (clImage != clReducedImage) {
-            clReducedImage.close();
+            clij.release(clReducedImage);
         }
         return sum;
     }
@@ -2928,12 +3001,12 @@ public class Kernels {
         int numberOfImages = (int) input.getDepth();
         double[] result = new double[numberOfImages];
 
-        ClearCLImage slice = clij.createCLImage(new long[]{input.getWidth(), input.getHeight()}, input.getChannelDataType());
+        ClearCLImage slice = clij.createTemporary(new long[]{input.getWidth(), input.getHeight()}, input.getChannelDataType());
         for (int z = 0; z < numberOfImages; z++) {
             copySlice(clij, input, slice, z);
             result[z] = sumPixels(clij, slice);
         }
-        slice.close();
+        clij.release(slice);
         return result;
     }
 
@@ -2945,12 +3018,24 @@ public class Kernels {
         int numberOfImages = (int) input.getDepth();
         double[] result = new double[numberOfImages];
 
-        ClearCLBuffer slice = clij.createCLBuffer(new long[]{input.getWidth(), input.getHeight()}, input.getNativeType());
+        // slices are summed in place if possible; otherwise they're copied to a temporary image
+        ClearCLBuffer slice = null;
         for (int z = 0; z < numberOfImages; z++) {
-            copySlice(clij, input, slice, z);
-            result[z] = sumPixels(clij, slice);
+            ClearCLBuffer view = BufferViews.createSliceView(clij, input, z);
+            if (view != null) {
+                result[z] = sumPixels(clij, view);
+                clij.release(view);
+            } else {
+                if (slice == null) {
+                    slice = clij.createTemporary(new long[]{input.getWidth(), input.getHeight()}, input.getNativeType());
+                }
+                copySlice(clij, input, slice, z);
+                result[z] = sumPixels(clij, slice);
+            }
+        }
+        if (slice != null) {
+            clij.release(slice);
         }
-        slice.close();
         return result;
     }
 
@@ -3002,49 +3087,55 @@ public class Kernels {
             System.out.println("Warning: tenengradFusion may only work on float images!");
         }
 
-        HashMap<String, Object> lFusionParameters = new HashMap<>();
+        // weights and temporary images are released by the scope, also if an exception is thrown
+        try (AllocationScope scope = clij.openScope()) {
+            HashMap<String, Object> lFusionParameters = new HashMap<>();
+            boolean applyExponent = Math.abs(exponent - 1.0f) > 0.0001;
 
-        ClearCLImage temporaryImage = clij.createCLImage(clImagesIn[0]);
-        ClearCLImage temporaryImage2 = null;
-        if (Math.abs(exponent - 1.0f) > 0.0001) {
-            temporaryImage2 = clij.createCLImage(clImagesIn[0]);
-        }
-
-        ClearCLImage[] temporaryImages = new ClearCLImage[clImagesIn.length];
-        for (int i = 0; i < clImagesIn.length; i++) {
-            HashMap<String, Object> parameters = new HashMap<>();
-            temporaryImages[i] = clij.createCLImage(clImagesIn[i]);
-            parameters.put("src", clImagesIn[i]);
-            parameters.put("dst", temporaryImage);
-
-            clij.execute(Kernels.class, "tenengradFusion.cl", "tenengrad_weight_unnormalized", parameters);
-
-            if (temporaryImage2 != null) {
-                power(clij, temporaryImage, temporaryImage2, exponent);
-                blur(clij, temporaryImage2, temporaryImages[i], blurSigmas[0], blurSigmas[1], blurSigmas[2]);
-            } else {
-                blur(clij, temporaryImage, temporaryImages[i], blurSigmas[0], blurSigmas[1], blurSigmas[2]);
+            ClearCLImage[] temporaryImages = new ClearCLImage[clImagesIn.length];
+            for (int i = 0; i < clImagesIn.length; i++) {
+                temporaryImages[i] = clij.createTemporary(clImagesIn[i].getDimensions(), clImagesIn[i].getChannelDataType());
+                lFusionParameters.put("src" + i, clImagesIn[i]);
+                lFusionParameters.put("weight" + i, temporaryImages[i]);
             }
 
-            lFusionParameters.put("src" + i, clImagesIn[i]);
-            lFusionParameters.put("weight" + i, temporaryImages[i]);
-        }
-
-        lFusionParameters.put("dst", clImageOut);
-        lFusionParameters.put("factor", (int) (clImagesIn[0].getWidth() / temporaryImages[0].getWidth()));
-
-        boolean success = clij.execute(Kernels.class, "tenengradFusion.cl", String.format("tenengrad_fusion_with_provided_weights_%d_images", clImagesIn.length), lFusionParameters);
+            // the weights of the input images are independent: compute them concurrently. Every queue processes
+            // its share of the inputs one after another, so that intermediate images exist once per queue only.
+            int numberOfTasks = Math.min(clij.getNumberOfConcurrentQueues(), clImagesIn.length);
+            Runnable[] weightComputations = new Runnable[numberOfTasks];
+            for (int t = 0; t < numberOfTasks; t++) {
+                final int firstInput = t;
+                weightComputations[t] = () -> {
+                    ClearCLImage temporaryImage = clij.createTemporary(clImagesIn[firstInput].getDimensions(), clImagesIn[firstInput].getChannelDataType());
+                    ClearCLImage temporaryImage2 = applyExponent ? clij.createTemporary(temporaryImage.getDimensions(), temporaryImage.getChannelDataType()) : null;
+
+                    for (int i = firstInput; i < clImagesIn.length; i += numberOfTasks) {
+                        HashMap<String, Object> parameters = new HashMap<>();
+                        parameters.put("src", clImagesIn[i]);
+                        parameters.put("dst", temporaryImage);
+                        clij.execute(Kernels.class, "tenengradFusion.cl", "tenengrad_weight_unnormalized", parameters);
+
+                        if (applyExponent) {
+                            power(clij, temporaryImage, temporaryImage2, exponent);
+                            blur(clij, temporaryImage2, temporaryImages[i], blurSigmas[0], blurSigmas[1], blurSigmas[2]);
+                        } else {
+                            blur(clij, temporaryImage, temporaryImages[i], blurSigmas[0], blurSigmas[1], blurSigmas[2]);
+                        }
+                    }
+
+                    if (temporaryImage2 != null) {
+                        clij.release(temporaryImage2);
+                    }
+                    clij.release(temporaryImage);
+                };
+            }
+            clij.executeConcurrently(weightComputations);
 
-        temporaryImage.close();
-        for (int i = 0; i < temporaryImages.length; i++) {
-            temporaryImages[i].close();
-        }
+            lFusionParameters.put("dst", clImageOut);
+            lFusionParameters.put("factor", (int) (clImagesIn[0].getWidth() / temporaryImages[0].getWidth()));
 
-        if (temporaryImage2 != null) {
-            temporaryImage2.close();
+            return clij.execute(Kernels.class, "tenengradFusion.cl", String.format("tenengrad_fusion_with_provided_weights_%d_images", clImagesIn.length), lFusionParameters);
         }
-
-        return success;
     }
 
     public static boolean threshold(CLIJ clij, ClearCLImage src, ClearCLImage dst, Float threshold) {
@@ -3064,7 +3155,7 @@ public class Kernels {
     }
 
     public static boolean threshold(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst, Float threshold) {
-        assertDifferent(src, dst);
+        assertDifferentOrInPlaceSafe("threshold", src, dst);
 
         HashMap<String, Object> parameters = new HashMap<>();
 
@@ -3080,6 +3171,30 @@ public class Kernels {
         return clij.execute(Kernels.class, "apply_threshold_" + src.getDimension() + "d.cl", "apply_threshold_" + src.getDimension() + "d", parameters);
     }
 
+    public static boolean thresholdBatch(CLIJ clij, List<ClearCLBuffer> src, List<ClearCLBuffer> dst, Float threshold) {
+        assertSameSize(src, dst);
+        if (src.isEmpty()) {
+            return true;
+        }
+        long dimension = src.get(0).getDimension();
+
+        ArrayList<Map<String, Object>> parameterMaps = new ArrayList<>();
+        for (int i = 0; i < src.size(); i++) {
+            assertDifferentOrInPlaceSafe("threshold", src.get(i), dst.get(i));
+            if (!checkDimensions(dimension, src.get(i).getDimension(), dst.get(i).getDimension())) {
+                throw new IllegalArgumentException("Error: number of dimensions don't match! (thresholdBatch)");
+            }
+
+            HashMap<String, Object> parameters = new HashMap<>();
+            parameters.put("threshold", threshold);
+            parameters.put("src", src.get(i));
+            parameters.put("dst", dst.get(i));
+            parameterMaps.add(parameters);
+        }
+
+        return clij.executeBatch(Kernels.class, "apply_threshold_" + dimension + "d.cl", "apply_threshold_" + dimension + "d", null, parameterMaps);
+    }
+
     private static boolean checkDimensions(long... numberOfDimensions) {
         for (int i = 0; i < numberOfDimensions.length - 1; i++) {
             if (!(numberOfDimensions[i] == numberOfDimensions[i + 1])) {
@@ -0,0 +1,199 @@
+package net.haesleinhuepf.clij.kernels;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.haesleinhuepf.clij.utilities.CLIJUtilities.assertDifferent;
+
+/**
+ * The PixelwiseFusion combines a chain of pixelwise operations into a single generated OpenCL kernel.
+ * Instead of writing intermediate results to temporary images, all intermediate values are kept in
+ * a float variable. Example:
+ * <pre>
+ * clij.fuse(input).multiplyImageAndScalar(2f).addImageAndScalar(3f).threshold(100f).mask(mask).executeTo(output);
+ * </pre>
+ * The generated code only depends on the sequence of operations (and on the number of dimensions).
+ * Scalars and images are handed over as kernel arguments. Thus, the program is built once per
+ * sequence of operations and reused for all values.
+ * <p>
+ * Note: As intermediate results are floats, results differ from calling the operations one by one on
+ * integer images in case intermediate results exceed the range of the image type.
+ */
+public class PixelwiseFusion {
+    private static final ConcurrentHashMap<String, String> sourceCodeCache = new ConcurrentHashMap<String, String>();
+
+    private final CLIJ clij;
+    private final Object src;
+    private final long[] dimensions;
+    private final NativeTypeEnum nativeType;
+
+    private final ArrayList<String> operations = new ArrayList<String>();
+    private final HashMap<String, Object> parameters = new HashMap<String, Object>();
+    private int scalarCount = 0;
+    private int imageCount = 0;
+
+    public PixelwiseFusion(CLIJ clij, ClearCLBuffer src) {
+        this(clij, src, src.getDimensions(), src.getNativeType());
+    }
+
+    public PixelwiseFusion(CLIJ clij, ClearCLImage src) {
+        this(clij, src, src.getDimensions(), src.getNativeType());
+    }
+
+    private PixelwiseFusion(CLIJ clij, Object src, long[] dimensions, NativeTypeEnum nativeType) {
+        if (dimensions.length < 2 || dimensions.length > 3) {
+            throw new IllegalArgumentException("Error: Only two and three dimensional images are supported by PixelwiseFusion.");
+        }
+        this.clij = clij;
+        this.src = src;
+        this.dimensions = dimensions;
+        this.nativeType = nativeType;
+        parameters.put("src", src);
+    }
+
+    public PixelwiseFusion addImageAndScalar(Float scalar) {
+        return scalarOperation("addScalar", "value + %s", scalar);
+    }
+
+    public PixelwiseFusion multiplyImageAndScalar(Float scalar) {
+        return scalarOperation("multiplyScalar", "value * %s", scalar);
+    }
+
+    /**
+     * Pixels with values above or equal the threshold are set to 1, all others to 0.
+     */
+    public PixelwiseFusion threshold(Float threshold) {
+        return scalarOperation("threshold", "(value < %s) ? 0.0f : 1.0f", threshold);
+    }
+
+    public PixelwiseFusion power(Float exponent) {
+        return scalarOperation("power", "pow(value, %s)", exponent);
+    }
+
+    public PixelwiseFusion absolute() {
+        operations.add("absolute");
+        operations.add("fabs(value)");
+        return this;
+    }
+
+    public PixelwiseFusion addImages(ClearCLBuffer image) {
+        return imageOperation("addImages", "value + %s", image, image.getDimensions(), image.getNativeType());
+    }
+
+    public PixelwiseFusion addImages(ClearCLImage image) {
+        return imageOperation("addImages", "value + %s", image, image.getDimensions(), image.getNativeType());
+    }
+
+    public PixelwiseFusion multiplyImages(ClearCLBuffer image) {
+        return imageOperation("multiplyImages", "value * %s", image, image.getDimensions(), image.getNativeType());
+    }
+
+    public PixelwiseFusion multiplyImages(ClearCLImage image) {
+        return imageOperation("multiplyImages", "value * %s", image, image.getDimensions(), image.getNativeType());
+    }
+
+    /**
+     * Pixels where the mask is 0 are set to 0.
+     */
+    public PixelwiseFusion mask(ClearCLBuffer mask) {
+        return imageOperation("mask", "(%s != 0) ? value : 0.0f", mask, mask.getDimensions(), mask.getNativeType());
+    }
+
+    public PixelwiseFusion mask(ClearCLImage mask) {
+        return imageOperation("mask", "(%s != 0) ? value : 0.0f", mask, mask.getDimensions(), mask.getNativeType());
+    }
+
+    private PixelwiseFusion scalarOperation(String name, String expression, Float scalar) {
+        String argumentName = "scalar" + scalarCount;
+        scalarCount++;
+        parameters.put(argumentName, scalar);
+        operations.add(name);
+        operations.add(String.format(expression, argumentName));
+        return this;
+    }
+
+    private PixelwiseFusion imageOperation(String name, String expression, Object image, long[] imageDimensions, NativeTypeEnum imageType) {
+        if (!Arrays.equals(dimensions, imageDimensions)) {
+            throw new IllegalArgumentException("Error: image sizes don't match! (" + name + ")");
+        }
+        if (nativeType != imageType) {
+            // all inputs are read with the same READ_IMAGE macro
+            throw new IllegalArgumentException("Error: image types don't match! (" + name + ")");
+        }
+        imageCount++;
+        String argumentName = "src" + imageCount;
+        parameters.put(argumentName, image);
+        operations.add(name);
+        operations.add(String.format(expression, "READ_IMAGE_" + dimensions.length + "D(" + argumentName + ", sampler, pos).x"));
+        return this;
+    }
+
+    public boolean executeTo(ClearCLBuffer dst) {
+        return executeTo((Object) dst, dst.getDimensions());
+    }
+
+    public boolean executeTo(ClearCLImage dst) {
+        return executeTo((Object) dst, dst.getDimensions());
+    }
+
+    private boolean executeTo(Object dst, long[] dstDimensions) {
+        if (!Arrays.equals(dimensions, dstDimensions)) {
+            throw new IllegalArgumentException("Error: image sizes don't match! (PixelwiseFusion)");
+        }
+        for (Object image : parameters.values()) {
+            assertDifferent(image, dst);
+        }
+        parameters.put("dst", dst);
+
+        String kernelName = "fused_pixelwise_" + dimensions.length + "d";
+        StringBuilder programName = new StringBuilder(kernelName);
+        for (int i = 0; i < operations.size(); i += 2) {
+            programName.append("_").append(operations.get(i));
+        }
+        String sourceCode = sourceCodeCache.get(programName.toString());
+        if (sourceCode == null) {
+            sourceCode = generateSourceCode(kernelName);
+            sourceCodeCache.put(programName.toString(), sourceCode);
+        }
+
+        return clij.executeCode(PixelwiseFusion.class, programName.toString(), sourceCode, kernelName, null, parameters);
+    }
+
+    private String generateSourceCode(String kernelName) {
+        int dimension = dimensions.length;
+
+        StringBuilder code = new StringBuilder();
+        code.append("__constant sampler_t sampler = CLK_NORMALIZED_COORDS_FALSE | CLK_ADDRESS_CLAMP_TO_EDGE | CLK_FILTER_NEAREST;\n\n");
+        code.append("__kernel void ").append(kernelName).append("(DTYPE_IMAGE_IN_").append(dimension).append("D src,\n");
+        for (int i = 1; i <= imageCount; i++) {
+            code.append("    DTYPE_IMAGE_IN_").append(dimension).append("D src").append(i).append(",\n");
+        }
+        for (int i = 0; i < scalarCount; i++) {
+            code.append("    float scalar").append(i).append(",\n");
+        }
+        code.append("    DTYPE_IMAGE_OUT_").append(dimension).append("D dst\n");
+        code.append(")\n{\n");
+        code.append("  const int x = get_global_id(0);\n");
+        code.append("  const int y = get_global_id(1);\n");
+        if (dimension == 3) {
+            code.append("  const int z = get_global_id(2);\n\n");
+            code.append("  const int4 pos = (int4){x,y,z,0};\n\n");
+        } else {
+            code.append("\n  const int2 pos = (int2){x,y};\n\n");
+        }
+        code.append("  float value = READ_IMAGE_").append(dimension).append("D(src, sampler, pos).x;\n");
+        for (int i = 1; i < operations.size(); i += 2) {
+            code.append("  value = ").append(operations.get(i)).append(";\n");
+        }
+        code.append("\n  WRITE_IMAGE_").append(dimension).append("D (dst, pos, CONVERT_DTYPE_OUT(value));\n");
+        code.append("}\n");
+        return code.toString();
+    }
+}
@@ -0,0 +1,214 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.clearcl.enums.HostAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
+import net.haesleinhuepf.clij.clearcl.enums.KernelAccessType;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * An AllocationScope keeps track of all images a CLIJ instance creates in the current thread while the scope
+ * is open. When the scope is closed, all these images are released, except images handed over to escape().
+ * Use it with try-with-resources to prevent leaking device memory, also if exceptions are thrown:
+ * <p>
+ * try (AllocationScope scope = clij.openScope()) {
+ *     ClearCLBuffer temp = clij.create(input);
+ *     ...
+ *     return scope.escape(result);
+ * }
+ * <p>
+ * In loops, call recycle() at the end of every iteration: the images of the iteration are then reused by the
+ * next one instead of allocating new ones. Images released via CLIJ.release() within the scope are reused as
+ * well. Scopes may be nested; escaped images belong to the enclosing scope then.
+ */
+public class AllocationScope implements AutoCloseable {
+    private static final ThreadLocal<AllocationScope> innermostScope = new ThreadLocal<AllocationScope>();
+
+    private final CLIJ clij;
+    private final AllocationScope parent;
+    private final Set<Object> trackedImages = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final BufferPool recycledImages = new BufferPool(Long.MAX_VALUE);
+    private boolean closed = false;
+
+    /**
+     * Opens a scope in the current thread. Use CLIJ.openScope() instead.
+     */
+    public AllocationScope(CLIJ clij) {
+        this.clij = clij;
+        this.parent = innermostScope.get();
+        innermostScope.set(this);
+    }
+
+    /**
+     * Excludes the given image from being released when the scope is closed.
+     *
+     * @return the given image
+     */
+    public <T> T escape(T image) {
+        if (trackedImages.remove(image)) {
+            AllocationScope enclosingScope = find(clij, parent);
+            if (enclosingScope != null) {
+                enclosingScope.trackedImages.add(image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Marks all images created within the scope and not escaped as unused. They are handed out again when
+     * images of the same size and type are created within this scope.
+     */
+    public void recycle() {
+        assertOpen();
+        if (!clij.isWaitForKernelFinish()) {
+            // kernels of this iteration may still use the images
+            clij.finishCurrentThread();
+        }
+        for (Object image : trackedImages) {
+            if (!isClosed(image)) {
+                recycledImages.release(image);
+            }
+        }
+        trackedImages.clear();
+    }
+
+    /**
+     * Releases all images created within the scope and not escaped.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (innermostScope.get() != this) {
+            throw new IllegalStateException("Error: Allocation scopes must be closed in reverse order of opening.");
+        }
+        closed = true;
+        if (parent == null) {
+            innermostScope.remove();
+        } else {
+            innermostScope.set(parent);
+        }
+
+        ArrayList<Object> images = recycledImages.drain();
+        images.addAll(trackedImages);
+        trackedImages.clear();
+        for (Object image : images) {
+            if (!isClosed(image)) {
+                clij.release(image);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getNumberOfTrackedImages() {
+        return trackedImages.size();
+    }
+
+    /**
+     * @return number of images which were reused instead of allocated
+     */
+    public long getRecycledImageCount() {
+        return recycledImages.getHitCount();
+    }
+
+    private void assertOpen() {
+        if (closed) {
+            throw new IllegalStateException("Error: The allocation scope is closed already.");
+        }
+    }
+
+    private static AllocationScope find(CLIJ clij, AllocationScope scope) {
+        while (scope != null && scope.clij != clij) {
+            scope = scope.parent;
+        }
+        return scope;
+    }
+
+    /**
+     * Tracks the given image in the innermost scope of the given CLIJ instance in the current thread.
+     */
+    public static void allocated(CLIJ clij, Object image) {
+        AllocationScope scope = find(clij, innermostScope.get());
+        if (scope != null) {
+            scope.trackedImages.add(image);
+        }
+    }
+
+    /**
+     * Removes the given image from all scopes of the current thread.
+     */
+    public static void untrack(CLIJ clij, Object image) {
+        for (AllocationScope scope = find(clij, innermostScope.get()); scope != null; scope = find(clij, scope.parent)) {
+            scope.trackedImages.remove(image);
+        }
+    }
+
+    /**
+     * Removes the given image from all scopes of the current thread. If it was tracked and recycling is
+     * allowed, it is kept for reuse by the scope which tracked it.
+     *
+     * @return true if the image is kept for reuse
+     */
+    public static boolean released(CLIJ clij, Object image, boolean recycle) {
+        for (AllocationScope scope = find(clij, innermostScope.get()); scope != null; scope = find(clij, scope.parent)) {
+            if (scope.trackedImages.remove(image)) {
+                if (recycle) {
+                    scope.recycledImages.release(image);
+                    return true;
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a recycled buffer of one of the scopes of the current thread or null if there is none
+     */
+    public static ClearCLBuffer getRecycledBuffer(CLIJ clij, long[] dimensions, NativeTypeEnum nativeType, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        for (AllocationScope scope = find(clij, innermostScope.get()); scope != null; scope = find(clij, scope.parent)) {
+            if (scope.recycledImages.getNumberOfPooledImages() > 0) {
+                ClearCLBuffer buffer = scope.recycledImages.getBuffer(dimensions, nativeType, hostAccessType, kernelAccessType);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a recycled image of one of the scopes of the current thread or null if there is none
+     */
+    public static ClearCLImage getRecycledImage(CLIJ clij, long[] dimensions, ImageChannelDataType channelDataType, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        for (AllocationScope scope = find(clij, innermostScope.get()); scope != null; scope = find(clij, scope.parent)) {
+            if (scope.recycledImages.getNumberOfPooledImages() > 0) {
+                ClearCLImage image = scope.recycledImages.getImage(dimensions, channelDataType, hostAccessType, kernelAccessType);
+                if (image != null) {
+                    return image;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isClosed(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            return ((ClearCLBuffer) image).getPeerPointer() == null;
+        } else if (image instanceof ClearCLImage) {
+            return ((ClearCLImage) image).getPeerPointer() == null;
+        }
+        return true;
+    }
+}
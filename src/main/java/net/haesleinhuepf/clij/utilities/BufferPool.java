@@ -0,0 +1,208 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.clearcl.enums.HostAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
+import net.haesleinhuepf.clij.clearcl.enums.KernelAccessType;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The BufferPool keeps released ClearCLBuffers and ClearCLImages instead of closing them and hands them
+ * out again when an image with the same dimensions, type and access flags is created. Hand a pool over to
+ * CLIJ.setBufferPool() to make CLIJ.create() use it. Images are returned to the pool by CLIJ.release().
+ * <p>
+ * The pool keeps at most the given number of bytes. If more bytes are released, the images released first
+ * are closed. Pooled images are not initialized; their content is undefined.
+ */
+public class BufferPool {
+    private final long maximumPooledBytes;
+
+    private final HashMap<String, ArrayDeque<Object>> pooledImages = new HashMap<String, ArrayDeque<Object>>();
+    // release order; used for closing the oldest images when the pool is full. Images don't override
+    // equals(), thus lookups and removals by identity take constant time
+    private final LinkedHashSet<Object> releaseOrder = new LinkedHashSet<Object>();
+    private long pooledBytes = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * @param maximumPooledBytes maximum size of all images kept in the pool
+     */
+    public BufferPool(long maximumPooledBytes) {
+        if (maximumPooledBytes < 0) {
+            throw new IllegalArgumentException("Error: The maximum pool size must not be negative.");
+        }
+        this.maximumPooledBytes = maximumPooledBytes;
+    }
+
+    public static String getKey(long[] dimensions, Object type, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        return Arrays.toString(dimensions) + "_" + type + "_" + hostAccessType + "_" + kernelAccessType;
+    }
+
+    private static String getKey(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            ClearCLBuffer buffer = (ClearCLBuffer) image;
+            return getKey(buffer.getDimensions(), buffer.getNativeType(), buffer.getHostAccessType(), buffer.getKernelAccessType());
+        } else if (image instanceof ClearCLImage) {
+            ClearCLImage clImage = (ClearCLImage) image;
+            return getKey(clImage.getDimensions(), clImage.getChannelDataType(), clImage.getHostAccessType(), clImage.getKernelAccessType());
+        }
+        throw new IllegalArgumentException("Error: Only ClearCLBuffers and ClearCLImages can be pooled.");
+    }
+
+    /**
+     * Returns a pooled buffer with the given properties and removes it from the pool.
+     *
+     * @return the buffer or null if there is none
+     */
+    public ClearCLBuffer getBuffer(long[] dimensions, NativeTypeEnum nativeType, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        return (ClearCLBuffer) get(getKey(dimensions, nativeType, hostAccessType, kernelAccessType));
+    }
+
+    /**
+     * Returns a pooled image with the given properties and removes it from the pool.
+     *
+     * @return the image or null if there is none
+     */
+    public ClearCLImage getImage(long[] dimensions, ImageChannelDataType channelDataType, HostAccessType hostAccessType, KernelAccessType kernelAccessType) {
+        return (ClearCLImage) get(getKey(dimensions, channelDataType, hostAccessType, kernelAccessType));
+    }
+
+    private synchronized Object get(String key) {
+        ArrayDeque<Object> images = pooledImages.get(key);
+        if (images == null || images.isEmpty()) {
+            missCount++;
+            return null;
+        }
+        // the most recently released image is most likely still cached by the driver
+        Object image = images.pollLast();
+        releaseOrder.remove(image);
+        pooledBytes -= getSizeInBytes(image);
+        hitCount++;
+        return image;
+    }
+
+    /**
+     * Puts the given image into the pool. Images which don't fit into the pool are closed.
+     *
+     * @param image ClearCLBuffer or ClearCLImage not used by anyone anymore
+     */
+    public void release(Object image) {
+        ArrayList<Object> imagesToClose = new ArrayList<Object>();
+        synchronized (this) {
+            long sizeInBytes = getSizeInBytes(image);
+            if (sizeInBytes > maximumPooledBytes) {
+                imagesToClose.add(image);
+                evictionCount++;
+            } else if (!releaseOrder.contains(image)) {
+                while (pooledBytes + sizeInBytes > maximumPooledBytes) {
+                    Iterator<Object> iterator = releaseOrder.iterator();
+                    Object oldest = iterator.next();
+                    iterator.remove();
+                    pooledImages.get(getKey(oldest)).remove(oldest);
+                    pooledBytes -= getSizeInBytes(oldest);
+                    imagesToClose.add(oldest);
+                    evictionCount++;
+                }
+                String key = getKey(image);
+                ArrayDeque<Object> images = pooledImages.get(key);
+                if (images == null) {
+                    images = new ArrayDeque<Object>();
+                    pooledImages.put(key, images);
+                }
+                images.addLast(image);
+                releaseOrder.add(image);
+                pooledBytes += sizeInBytes;
+            }
+        }
+        for (Object imageToClose : imagesToClose) {
+            close(imageToClose);
+        }
+    }
+
+    /**
+     * Removes all images from the pool without closing them.
+     *
+     * @return the formerly pooled images
+     */
+    public synchronized ArrayList<Object> drain() {
+        ArrayList<Object> images = new ArrayList<Object>(releaseOrder);
+        releaseOrder.clear();
+        pooledImages.clear();
+        pooledBytes = 0;
+        return images;
+    }
+
+    /**
+     * Closes all pooled images.
+     */
+    public void clear() {
+        ArrayList<Object> imagesToClose;
+        synchronized (this) {
+            imagesToClose = new ArrayList<Object>(releaseOrder);
+            releaseOrder.clear();
+            pooledImages.clear();
+            pooledBytes = 0;
+        }
+        for (Object image : imagesToClose) {
+            close(image);
+        }
+    }
+
+    private static void close(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            ((ClearCLBuffer) image).close();
+        } else if (image instanceof ClearCLImage) {
+            ((ClearCLImage) image).close();
+        }
+    }
+
+    private static long getSizeInBytes(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            return ((ClearCLBuffer) image).getSizeInBytes();
+        } else if (image instanceof ClearCLImage) {
+            return ((ClearCLImage) image).getSizeInBytes();
+        }
+        return 0;
+    }
+
+    public long getMaximumPooledBytes() {
+        return maximumPooledBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized int getNumberOfPooledImages() {
+        return releaseOrder.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool: " + releaseOrder.size() + " images, " + pooledBytes + " of " + maximumPooledBytes + " bytes, " +
+                hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions";
+    }
+}
@@ -0,0 +1,143 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLPeerPointer;
+import net.haesleinhuepf.clij.clearcl.enums.MemAllocMode;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_buffer_region;
+import org.jocl.cl_device_id;
+import org.jocl.cl_mem;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static org.jocl.CL.*;
+
+/**
+ * BufferViews are ClearCLBuffers backed by OpenCL sub-buffers: they share device memory with a part of
+ * an existing buffer, e.g. a z-slice, a range of z-slices or a range of rows. Kernels read from and write to
+ * views like any other buffer; no data is copied and no device memory is allocated.
+ * <p>
+ * Only contiguous regions starting at an offset aligned to the devices base address alignment can be
+ * viewed. Furthermore, views need the JOCL backend. If a view can't be created, null is returned and the
+ * caller should copy the region instead. Views must be closed (or handed over to CLIJ.release()) before
+ * their parent buffer is closed.
+ */
+public class BufferViews {
+    private static final Set<ClearCLBuffer> views = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ClearCLBuffer, Boolean>()));
+
+    /**
+     * Creates a 2D view of the given z-slice of a 3D buffer.
+     *
+     * @return the view or null if it can't be created
+     */
+    public static ClearCLBuffer createSliceView(CLIJ clij, ClearCLBuffer buffer, int z) {
+        if (buffer.getDimension() != 3) {
+            throw new IllegalArgumentException("Error: Slice views can only be created from 3D buffers.");
+        }
+        if (z < 0 || z >= buffer.getDepth()) {
+            throw new IllegalArgumentException("Error: The slice index exceeds the buffer.");
+        }
+        return createView(clij, buffer, z * buffer.getWidth() * buffer.getHeight(), new long[]{buffer.getWidth(), buffer.getHeight()});
+    }
+
+    /**
+     * Creates a 3D view of the given range of z-slices of a 3D buffer.
+     *
+     * @return the view or null if it can't be created
+     */
+    public static ClearCLBuffer createZRangeView(CLIJ clij, ClearCLBuffer buffer, int startZ, int depth) {
+        if (buffer.getDimension() != 3) {
+            throw new IllegalArgumentException("Error: Z-range views can only be created from 3D buffers.");
+        }
+        return createCropView(clij, buffer, 0, 0, startZ, buffer.getWidth(), buffer.getHeight(), depth);
+    }
+
+    /**
+     * Creates a view of the given range of rows of a 2D buffer.
+     *
+     * @return the view or null if it can't be created
+     */
+    public static ClearCLBuffer createRowRangeView(CLIJ clij, ClearCLBuffer buffer, int startY, int height) {
+        if (buffer.getDimension() != 2) {
+            throw new IllegalArgumentException("Error: Row-range views can only be created from 2D buffers.");
+        }
+        return createCropView(clij, buffer, 0, startY, 0, buffer.getWidth(), height, 1);
+    }
+
+    /**
+     * Creates a view of the given region of a buffer, with the same dimensionality as the buffer. This is
+     * only possible if the region is contiguous in memory: it must span whole rows, and in 3D whole slices
+     * unless it is one slice deep.
+     *
+     * @return the view or null if it can't be created
+     */
+    public static ClearCLBuffer createCropView(CLIJ clij, ClearCLBuffer buffer, long startX, long startY, long startZ, long width, long height, long depth) {
+        if (startX < 0 || startY < 0 || startZ < 0 || width < 1 || height < 1 || depth < 1 ||
+                startX + width > buffer.getWidth() || startY + height > buffer.getHeight() || startZ + depth > buffer.getDepth()) {
+            throw new IllegalArgumentException("Error: The view region exceeds the buffer.");
+        }
+        if (width != buffer.getWidth() || (height != buffer.getHeight() && depth > 1)) {
+            return null;
+        }
+        long offset = (startZ * buffer.getHeight() + startY) * buffer.getWidth();
+        long[] dimensions = buffer.getDimension() == 2 ? new long[]{width, height} : new long[]{width, height, depth};
+        return createView(clij, buffer, offset, dimensions);
+    }
+
+    private static ClearCLBuffer createView(CLIJ clij, ClearCLBuffer buffer, long offsetInPixels, long[] dimensions) {
+        // OpenCL doesn't support sub-buffers of sub-buffers
+        if (isView(buffer) || !(buffer.getPeerPointer().getPointer() instanceof cl_mem)) {
+            return null;
+        }
+
+        long bytesPerPixel = buffer.getNativeType().getSizeInBytes();
+        long offsetInBytes = offsetInPixels * bytesPerPixel;
+        long sizeInBytes = bytesPerPixel;
+        for (long dimension : dimensions) {
+            sizeInBytes *= dimension;
+        }
+
+        try {
+            cl_device_id clDevice = (cl_device_id) clij.getClearCLContext().getDevice().getPeerPointer().getPointer();
+            int[] baseAddressAlignmentInBits = new int[1];
+            clGetDeviceInfo(clDevice, CL_DEVICE_MEM_BASE_ADDR_ALIGN, Sizeof.cl_uint, Pointer.to(baseAddressAlignmentInBits), null);
+            if (offsetInBytes % Math.max(1, baseAddressAlignmentInBits[0] / 8) != 0) {
+                return null;
+            }
+
+            int[] errorCode = new int[1];
+            cl_mem subBuffer = clCreateSubBuffer((cl_mem) buffer.getPeerPointer().getPointer(), 0, CL_BUFFER_CREATE_TYPE_REGION, new cl_buffer_region(offsetInBytes, sizeInBytes), errorCode);
+            if (errorCode[0] != CL_SUCCESS || subBuffer == null) {
+                return null;
+            }
+
+            ClearCLBuffer view = new ClearCLBuffer(clij.getClearCLContext(),
+                    new ClearCLPeerPointer(subBuffer),
+                    MemAllocMode.None,
+                    buffer.getHostAccessType(),
+                    buffer.getKernelAccessType(),
+                    1L,
+                    buffer.getNativeType(),
+                    dimensions);
+            views.add(view);
+            return view;
+        } catch (CLException e) {
+            if (CLIJ.debug) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the given image is a view created by this class
+     */
+    public static boolean isView(Object image) {
+        return image instanceof ClearCLBuffer && views.contains(image);
+    }
+}
@@ -9,6 +9,8 @@ import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
 import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
 import net.haesleinhuepf.clij.CLIJ;
 import net.haesleinhuepf.clij.utilities.AffineTransform;
+import net.haesleinhuepf.clij.utilities.AllocationScope;
+import net.haesleinhuepf.clij.utilities.BufferViews;
 import net.haesleinhuepf.clij.utilities.CLKernelExecutor;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
@@ -17,7 +19,11 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import static net.haesleinhuepf.clij.utilities.CLIJUtilities.*;
 // this is generated code. See src/test/java/net/haesleinhuepf/clij/codegenerator for details
 public class CLIJOps {
@@ -197,6 +203,10 @@ public class CLIJOps {
         return Kernels.blur(clij, src, dst, blurSigmaX, blurSigmaY, blurSigmaZ);
     }
 
+    public boolean blurBatch( List<ClearCLBuffer> src,  List<ClearCLBuffer> dst,  Float blurSigmaX,  Float blurSigmaY,  Float blurSigmaZ ) {
+        return Kernels.blurBatch(clij, src, dst, blurSigmaX, blurSigmaY, blurSigmaZ);
+    }
+
     public boolean convertToImageJBinary( ClearCLBuffer src,  ClearCLBuffer dst ) {
         return Kernels.convertToImageJBinary(clij, src, dst);
     }
@@ -599,6 +609,10 @@ public class CLIJOps {
         return Kernels.maximumZProjection(clij, src, dst_max);
     }
 
+    public boolean maximumZProjectionBatch( List<ClearCLBuffer> src,  List<ClearCLBuffer> dst_max ) {
+        return Kernels.maximumZProjectionBatch(clij, src, dst_max);
+    }
+
     public boolean minimumZProjection( ClearCLImage src,  ClearCLImage dst_min ) {
         return Kernels.minimumZProjection(clij, src, dst_min);
     }
@@ -953,4 +967,8 @@ public class CLIJOps {
         return Kernels.threshold(clij, src, dst, threshold);
     }
 
+    public boolean thresholdBatch( List<ClearCLBuffer> src,  List<ClearCLBuffer> dst,  Float threshold ) {
+        return Kernels.thresholdBatch(clij, src, dst, threshold);
+    }
+
 }
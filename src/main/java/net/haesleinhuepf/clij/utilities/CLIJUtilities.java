@@ -1,7 +1,14 @@
 package net.haesleinhuepf.clij.utilities;
 
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.haesleinhuepf.clij.clearcl.ClearCLImage;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
 /**
  * CLIJUtilities
  * <p>
@@ -9,6 +16,20 @@ import net.haesleinhuepf.clij.clearcl.ClearCLImage;
  * December 2018
  */
 public class CLIJUtilities {
+    /**
+     * Operations whose kernels read and write only the pixel at their own coordinate. Handing over the same
+     * ClearCLBuffer as src and dst is safe for them. ClearCLImages can't be read and written by the same
+     * kernel; thus, operations on images never work in place.
+     */
+    public static final Set<String> IN_PLACE_SAFE_OPERATIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "absolute",
+            "addImageAndScalar",
+            "invert",
+            "multiplyImageAndScalar",
+            "power",
+            "threshold"
+    )));
+
     public static int radiusToKernelSize(int radius) {
         int kernelSize = radius * 2 + 1;
         return kernelSize;
@@ -33,4 +54,19 @@ public class CLIJUtilities {
         }
     }
 
+    public static boolean isInPlaceSafe(String operationName) {
+        return IN_PLACE_SAFE_OPERATIONS.contains(operationName);
+    }
+
+    /**
+     * Throws an IllegalArgumentException if src and dst are the same image, unless they are a ClearCLBuffer and
+     * the given operation is in place safe.
+     */
+    public static void assertDifferentOrInPlaceSafe(String operationName, Object src, Object dst) {
+        if (src == dst && !(src instanceof ClearCLBuffer && isInPlaceSafe(operationName))) {
+            throw new IllegalArgumentException("Input image and output image must be different. Inplace operations are only supported " +
+                    "for ClearCLBuffers and the operations " + new TreeSet<String>(IN_PLACE_SAFE_OPERATIONS) + ".");
+        }
+    }
+
 }
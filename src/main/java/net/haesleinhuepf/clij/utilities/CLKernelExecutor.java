@@ -7,11 +7,18 @@ import net.haesleinhuepf.clij.clearcl.util.ElapsedTime;
 import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
 import net.haesleinhuepf.clij.CLIJ;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This executor can call OpenCL files. It
@@ -32,9 +39,65 @@ public class CLKernelExecutor {
     Map<String, Object> parameterMap;
     long[] globalSizes;
 
-    private final HashMap<String, ClearCLProgram> programCacheMap = new HashMap();
+    private static final String[] NO_IMAGE_NAMES = new String[0];
+    private static final long[] NO_IMAGE_SIZES = new long[0];
+
+    private ProgramCache programCache = new ProgramCache();
     ClearCLProgram currentProgram = null;
 
+    private volatile boolean sizeIndependentCompilation = false;
+    private boolean currentlySizeIndependent = false;
+
+    private volatile ProgramBinaryCache programBinaryCache = null;
+
+    private volatile boolean kernelReuse = true;
+    private ClearCLQueue queue = null;
+    private volatile OpenCLProfiler profiler = null;
+    private volatile LocalSizeTuner localSizeTuner = null;
+    private ClearCLKernel lastKernel = null;
+    private KernelSignature lastKernelSignature = null;
+    private String programSourceCode = null;
+    private final HashMap<KernelCacheKey, ClearCLKernel> kernelCache = new HashMap<KernelCacheKey, ClearCLKernel>();
+    // kernels enqueued to / known to be finished on the queue of this executor
+    private long enqueuedKernelCount = 0;
+    private long finishedKernelCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Kernels are cached per program and kernel name. A kernel keeps its arguments between two launches;
+     * thus, it must not be shared between threads. This is ensured as every thread has its own executor.
+     */
+    private static class KernelCacheKey {
+        private final ClearCLProgram program;
+        private final String kernelName;
+        private final int hashCode;
+
+        KernelCacheKey(ClearCLProgram program, String kernelName) {
+            this.program = program;
+            this.kernelName = kernelName;
+            this.hashCode = 31 * System.identityHashCode(program) + kernelName.hashCode();
+        }
+
+        boolean matches(ClearCLProgram program, String kernelName) {
+            return this.program == program && this.kernelName.equals(kernelName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof KernelCacheKey)) {
+                return false;
+            }
+            KernelCacheKey other = (KernelCacheKey) obj;
+            return other.matches(program, kernelName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+    private KernelCacheKey lastKernelCacheKey = null;
+
     public CLKernelExecutor(ClearCLContext context,
                             Class anchorClass,
                             String programFilename,
@@ -183,7 +246,20 @@ public class CLKernelExecutor {
     }
 
     public boolean enqueue(boolean waitToFinish) {
+        return enqueue(waitToFinish, true);
+    }
 
+    /**
+     * Builds the program for the current parameter map and creates the kernel without running it.
+     * Built programs end up in the program cache (and in the program binary cache if set).
+     *
+     * @return true if the kernel could be created
+     */
+    public boolean precompile() {
+        return enqueue(false, false);
+    }
+
+    private boolean enqueue(boolean waitToFinish, boolean launch) {
 
         if (CLIJ.debug) {
             System.out.println("Loading " + kernelName);
@@ -227,110 +303,104 @@ public class CLKernelExecutor {
         }
 
 
-        Map<String, Object> openCLDefines = new HashMap();
-        openCLDefines.put("MAX_ARRAY_SIZE", MAX_ARRAY_SIZE); // needed for median. Median is limited to a given array length to be sorted
-        if (srcImage != null) {
-            getOpenCLDefines(openCLDefines, srcImage.getChannelDataType(), true);
-        }
-        if (dstImage != null) {
-            getOpenCLDefines(openCLDefines, dstImage.getChannelDataType(), false);
-        }
-        if (srcBuffer != null) {
-            getOpenCLDefines(openCLDefines, srcBuffer.getNativeType(), true);
-        }
-        if (dstBuffer != null) {
-            getOpenCLDefines(openCLDefines, dstBuffer.getNativeType(), false);
-        }
-
-        // deal with image width/height/depth for all images and buffers
-        ArrayList<String> definedParameterKeys = new ArrayList<String>();
-        for (String key : parameterMap.keySet()) {
-            if (parameterMap.get(key) instanceof ClearCLImage) {
-                ClearCLImage image = (ClearCLImage) parameterMap.get(key);
-                openCLDefines.put("IMAGE_SIZE_" + key + "_WIDTH", image.getWidth());
-                openCLDefines.put("IMAGE_SIZE_" + key + "_HEIGHT", image.getHeight());
-                openCLDefines.put("IMAGE_SIZE_" + key + "_DEPTH", image.getDepth());
-            } else if (parameterMap.get(key) instanceof ClearCLBuffer) {
-                ClearCLBuffer image = (ClearCLBuffer) parameterMap.get(key);
-                openCLDefines.put("IMAGE_SIZE_" + key + "_WIDTH", image.getWidth());
-                openCLDefines.put("IMAGE_SIZE_" + key + "_HEIGHT", image.getHeight());
-                openCLDefines.put("IMAGE_SIZE_" + key + "_DEPTH", image.getDepth());
-            }
-            definedParameterKeys.add(key);
-        }
-
-        openCLDefines.put("GET_IMAGE_IN_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
-        openCLDefines.put("GET_IMAGE_IN_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
-        openCLDefines.put("GET_IMAGE_IN_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
-        openCLDefines.put("GET_IMAGE_OUT_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
-        openCLDefines.put("GET_IMAGE_OUT_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
-        openCLDefines.put("GET_IMAGE_OUT_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
-        openCLDefines.put("GET_IMAGE_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
-        openCLDefines.put("GET_IMAGE_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
-        openCLDefines.put("GET_IMAGE_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
-
-        // add undefined parameters to define list
-        ArrayList<String> variableNames = getImageVariablesFromSource();
-        for (String variableName : variableNames) {
-
-            boolean existsAlready = false;
-            for (String key : definedParameterKeys) {
-                if(key.compareTo(variableName) == 0) {
-                    existsAlready = true;
-                    break;
-                }
-            }
-            if (!existsAlready) {
-                openCLDefines.put("IMAGE_SIZE_" + variableName + "_WIDTH", 0);
-                openCLDefines.put("IMAGE_SIZE_" + variableName + "_HEIGHT", 0);
-                openCLDefines.put("IMAGE_SIZE_" + variableName + "_DEPTH", 0);
-            }
-        }
+        // in size independent mode, image sizes are handed over as kernel arguments instead of defines.
+        // Thus, one compiled program serves images of all sizes
+        currentlySizeIndependent = sizeIndependentCompilation && isSizeIndependentCompilationPossible();
 
+        ProgramCacheKey programCacheKey = getProgramCacheKey(srcImage, dstImage, srcBuffer, dstBuffer);
         if (CLIJ.debug) {
-            for (String key : openCLDefines.keySet()) {
-                System.out.println(key + " = " + openCLDefines.get(key));
-            }
+            System.out.println("Program cache key: " + programCacheKey);
         }
 
-
-
         ClearCLKernel clearCLKernel = null;
-
         try {
-
-            if (openCLDefines != null) {
-                clearCLKernel = getKernel(context, kernelName, openCLDefines);
-            } else {
-                clearCLKernel = getKernel(context, kernelName);
+            // the program is referenced until this executor switches to another one; thus, other executors
+            // sharing the cache can't close it while it's in use
+            ClearCLProgram clProgram = programCache.get(programCacheKey);
+            if (clProgram == null) {
+                // defines are only needed for building a program
+                clProgram = buildProgram(context, programCacheKey, getOpenCLDefines(srcImage, dstImage, srcBuffer, dstBuffer));
             }
-
-        } catch (IOException e1) {
+            if (!launch) {
+                try {
+                    ClearCLKernel kernel = clProgram.createKernel(kernelName);
+                    kernel.close();
+                } finally {
+                    programCache.release(clProgram);
+                }
+                return true;
+            }
+            setCurrentProgram(clProgram);
+            clearCLKernel = getKernel(clProgram, kernelName);
+            lastKernel = clearCLKernel;
+        } catch (IOException | OpenCLException e1) {
             e1.printStackTrace();
             return false;
         }
 
         if (clearCLKernel != null) {
+            long[] kernelGlobalSizes = null;
             if (globalSizes != null) {
-                clearCLKernel.setGlobalSizes(globalSizes);
+                kernelGlobalSizes = globalSizes;
             } else if (dstImage != null) {
-                clearCLKernel.setGlobalSizes(dstImage.getDimensions());
+                kernelGlobalSizes = dstImage.getDimensions();
             } else if (dstBuffer != null) {
-                clearCLKernel.setGlobalSizes(dstBuffer.getDimensions());
+                kernelGlobalSizes = dstBuffer.getDimensions();
             }
-            if (parameterMap != null) {
+            if (kernelGlobalSizes != null) {
+                clearCLKernel.setGlobalSizes(kernelGlobalSizes);
+            }
+            KernelSignature signature = getKernelSignature();
+            lastKernelSignature = signature;
+            Object[] arguments = null;
+            if (signature != null) {
+                // arguments are bound by index; names are only resolved via the precomputed signature
+                signature.validate(parameterMap);
+                arguments = new Object[signature.getArguments().length];
+                for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+                    arguments[signature.getArgument(entry.getKey()).getIndex()] = entry.getValue();
+                }
+                if (currentlySizeIndependent) {
+                    setImageSizeArguments(arguments, signature);
+                }
+                for (int i = 0; i < arguments.length; i++) {
+                    clearCLKernel.setArgument(i, arguments[i]);
+                }
+            } else if (parameterMap != null) {
                 for (String key : parameterMap.keySet()) {
                     clearCLKernel.setArgument(key, parameterMap.get(key));
                 }
             }
+            if (localSizeTuner != null && kernelGlobalSizes != null && LocalSizeTuner.isTunable(programFilename)) {
+                Object src = srcImage != null ? srcImage : srcBuffer;
+                Object dst = dstImage != null ? dstImage : dstBuffer;
+                // tuning runs the kernel repeatedly which is only allowed if it doesn't overwrite its input
+                if (src != null && dst != null && src != dst) {
+                    Object srcType = srcImage != null ? srcImage.getChannelDataType() : srcBuffer.getNativeType();
+                    Object dstType = dstImage != null ? dstImage.getChannelDataType() : dstBuffer.getNativeType();
+                    applyTunedLocalSizes(clearCLKernel, arguments, kernelGlobalSizes, srcType + "_" + dstType);
+                }
+            }
             if (CLIJ.debug) {
                 System.out.println("Executing " + kernelName);
             }
 
             final ClearCLKernel kernel = clearCLKernel;
+            final OpenCLProfiler currentProfiler = profiler;
+            final Object[] kernelArguments = arguments;
+            final long[] kernelSizes = kernelGlobalSizes;
+            final long[] shape = dstImage != null ? dstImage.getDimensions() : dstBuffer != null ? dstBuffer.getDimensions() : kernelGlobalSizes;
             double duration = ElapsedTime.measure("Pure kernel execution", () -> {
                 try {
-                    kernel.run(waitToFinish);
+                    if (currentProfiler != null && kernelArguments != null && kernelSizes != null) {
+                        // kernels enqueued before by this executor may write the images used here
+                        getQueue().waitToFinish();
+                        currentProfiler.runKernel(currentProgram, kernelName, kernelArguments, kernelSizes, shape);
+                    } else if (queue != null) {
+                        kernel.run(queue, waitToFinish);
+                    } else {
+                        kernel.run(waitToFinish);
+                    }
                 } catch (Exception e) {
                     e.printStackTrace();
 
@@ -340,49 +410,318 @@ public class CLKernelExecutor {
             if (CLIJ.debug) {
                 System.out.println("Returned from " + kernelName + " after " + duration + " msec" );
             }
-            clearCLKernel.close();
+            if (!kernelReuse) {
+                clearCLKernel.close();
+            }
         }
 
         return true;
     }
 
-    private HashMap<String, ArrayList<String>> variableListMap = new HashMap<String, ArrayList<String>>();
-    private ArrayList<String> getImageVariablesFromSource() {
-        String key = anchorClass.getName() + "_" + programFilename;
+    /**
+     * Executes the current kernel once for every given parameter map. The maps must contain the same keys
+     * and images of the same size and type. The program and the kernel are resolved for the first map only;
+     * for all others, only arguments are bound. Kernels are enqueued back-to-back.
+     *
+     * @param parameterMaps parameters of the individual launches
+     * @param waitToFinish true to wait for the last launch
+     * @return true if all kernels were enqueued
+     */
+    public boolean enqueueBatch(List<Map<String, Object>> parameterMaps, boolean waitToFinish) {
+        if (parameterMaps.isEmpty()) {
+            return true;
+        }
+        if (profiler != null || !kernelReuse) {
+            // every launch needs its own kernel
+            for (int i = 0; i < parameterMaps.size(); i++) {
+                setParameterMap(parameterMaps.get(i));
+                if (!enqueue(waitToFinish && i == parameterMaps.size() - 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
-        if (variableListMap.containsKey(key)) {
-            return variableListMap.get(key);
+        setParameterMap(parameterMaps.get(0));
+        lastKernel = null;
+        if (!enqueue(false) || lastKernel == null) {
+            return false;
         }
-        ArrayList<String> variableList = new ArrayList<String>();
+        ClearCLKernel kernel = lastKernel;
+        KernelSignature signature = lastKernelSignature;
+        ClearCLQueue batchQueue = getQueue();
+
+        for (int i = 1; i < parameterMaps.size(); i++) {
+            setParameterMap(parameterMaps.get(i));
+            if (signature != null) {
+                signature.validate(parameterMap);
+                Object[] arguments = new Object[signature.getArguments().length];
+                for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+                    arguments[signature.getArgument(entry.getKey()).getIndex()] = entry.getValue();
+                }
+                if (currentlySizeIndependent) {
+                    setImageSizeArguments(arguments, signature);
+                }
+                for (int a = 0; a < arguments.length; a++) {
+                    kernel.setArgument(a, arguments[a]);
+                }
+            } else {
+                for (String key : parameterMap.keySet()) {
+                    kernel.setArgument(key, parameterMap.get(key));
+                }
+            }
+            try {
+                kernel.run(batchQueue, false);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        if (waitToFinish) {
+            batchQueue.waitToFinish();
+        }
+        return true;
+    }
 
-        String sourceCode = getProgramSource();
-        String[] kernels = sourceCode.split("__kernel");
+    private void applyTunedLocalSizes(ClearCLKernel clearCLKernel, Object[] arguments, long[] kernelGlobalSizes, String pixelType) {
+        String key = LocalSizeTuner.getKey(context.getDevice(), programFilename, kernelName, kernelGlobalSizes.length, pixelType);
+        long[] localSizes = localSizeTuner.getLocalSizes(key, kernelGlobalSizes);
+        if (localSizes != null && localSizes.length == 0) {
+            if (!localSizeTuner.hasCandidates(context.getDevice(), kernelGlobalSizes)) {
+                // e.g. odd image sizes: leave the local sizes to the driver and tune with other sizes later
+                return;
+            }
+            // not tuned yet: benchmark with a separate kernel so that the local sizes of this one stay untouched
+            try {
+                ClearCLKernel tuningKernel = currentProgram.createKernel(kernelName);
+                if (arguments != null) {
+                    for (int i = 0; i < arguments.length; i++) {
+                        tuningKernel.setArgument(i, arguments[i]);
+                    }
+                } else {
+                    for (String name : parameterMap.keySet()) {
+                        tuningKernel.setArgument(name, parameterMap.get(name));
+                    }
+                }
+                tuningKernel.setGlobalSizes(kernelGlobalSizes);
+                localSizeTuner.tune(key, context.getDevice(), tuningKernel, getQueue(), kernelGlobalSizes);
+                tuningKernel.close();
+            } catch (IOException | OpenCLException e) {
+                e.printStackTrace();
+                return;
+            }
+            localSizes = localSizeTuner.getLocalSizes(key, kernelGlobalSizes);
+        }
+        if (localSizes != null && localSizes.length > 0) {
+            clearCLKernel.setLocalSizes(localSizes);
+        }
+    }
 
-        kernels[0] = "";
-        for (String kernel : kernels) {
-            if (kernel.length() > 0 ) {
-                //System.out.println("Parsing " + kernel.split("\\(")[0]);
-                String temp1 = kernel.split("\\(")[1];
-                if (temp1.length() > 0) {
-                    String parameterText = temp1.split("\\)")[0];
-                    parameterText = parameterText.replace("\n", " ");
-                    parameterText = parameterText.replace("\t", " ");
-                    parameterText = parameterText.replace("\r", " ");
+    private void setImageSizeArguments(Object[] kernelArguments, KernelSignature signature) {
+        KernelSignature.Argument[] arguments = signature.getArguments();
+        for (int i = 0; i + 3 < arguments.length; i++) {
+            if (arguments[i + 1].getKind() != KernelSignature.Kind.IMAGE_SIZE || arguments[i].getKind() == KernelSignature.Kind.IMAGE_SIZE) {
+                continue;
+            }
+            long[] dimensions = new long[]{0, 0, 0};
+            Object image = parameterMap.get(arguments[i].getName());
+            if (image instanceof ClearCLImage) {
+                ClearCLImage clImage = (ClearCLImage) image;
+                dimensions = new long[]{clImage.getWidth(), clImage.getHeight(), clImage.getDepth()};
+            } else if (image instanceof ClearCLBuffer) {
+                ClearCLBuffer clBuffer = (ClearCLBuffer) image;
+                dimensions = new long[]{clBuffer.getWidth(), clBuffer.getHeight(), clBuffer.getDepth()};
+            }
+            kernelArguments[i + 1] = (int) dimensions[0];
+            kernelArguments[i + 2] = (int) dimensions[1];
+            kernelArguments[i + 3] = (int) dimensions[2];
+        }
+    }
+
+    private final HashMap<String, HashMap<String, KernelSignature>> kernelSignatureMap = new HashMap<String, HashMap<String, KernelSignature>>();
+    private final HashMap<String, HashMap<String, KernelSignature>> sizeIndependentKernelSignatureMap = new HashMap<String, HashMap<String, KernelSignature>>();
+    /**
+     * Signatures of all kernels in the current program. They are parsed once per program file and
+     * compilation mode, because size independent programs have additional arguments.
+     */
+    private HashMap<String, KernelSignature> getKernelSignatures() {
+        HashMap<String, HashMap<String, KernelSignature>> signatureMap = currentlySizeIndependent ? sizeIndependentKernelSignatureMap : kernelSignatureMap;
+        String key = getProgramSourceKey();
 
-                    //System.out.println("Parsing parameters " + parameterText);
+        HashMap<String, KernelSignature> signatures = signatureMap.get(key);
+        if (signatures == null) {
+            signatures = KernelSignature.parse(currentlySizeIndependent ? getSizeIndependentProgramSource() : getProgramSource());
+            signatureMap.put(key, signatures);
+        }
+        return signatures;
+    }
 
-                    String[] parameters = parameterText.split(",");
-                    for (String parameter : parameters) {
-                        if (parameter.contains("IMAGE")) {
-                            String[] temp2 = parameter.trim().split(" ");
-                            String variableName = temp2[temp2.length - 1];
+    private KernelSignature getKernelSignature() {
+        return getKernelSignatures().get(kernelName);
+    }
 
-                            variableList.add(variableName);
+    private final HashMap<String, Boolean> sizeIndependentCompilationPossibleMap = new HashMap<String, Boolean>();
+    /**
+     * Size independent compilation is only possible if images are only handed over as parameters of
+     * __kernel functions (and not of helper functions) and if image sizes are not used as compile time
+     * constants, e.g. to allocate arrays.
+     */
+    private boolean isSizeIndependentCompilationPossible() {
+        String key = getProgramSourceKey();
 
-                        }
-                    }
+        if (sizeIndependentCompilationPossibleMap.containsKey(key)) {
+            return sizeIndependentCompilationPossibleMap.get(key);
+        }
+
+        String sourceCode = getRawProgramSource();
+        int imageParameterCount = countOccurrences(sourceCode, "DTYPE_IMAGE_");
+        int kernelImageParameterCount = 0;
+        boolean possible = sourceCode.length() > 0 && !sourceCode.contains("[GET_IMAGE");
+
+        int position = sourceCode.indexOf("__kernel");
+        while (possible && position >= 0) {
+            int parameterStart = sourceCode.indexOf("(", position);
+            int parameterEnd = sourceCode.indexOf(")", parameterStart);
+            if (parameterStart < 0 || parameterEnd < 0) {
+                possible = false;
+                break;
+            }
+            String parameterText = sourceCode.substring(parameterStart + 1, parameterEnd);
+            if (parameterText.contains("//") || parameterText.contains("/*")) {
+                possible = false;
+            }
+            kernelImageParameterCount += countOccurrences(parameterText, "DTYPE_IMAGE_");
+            position = sourceCode.indexOf("__kernel", parameterEnd);
+        }
+        possible = possible && imageParameterCount == kernelImageParameterCount;
+
+        if (CLIJ.debug) {
+            System.out.println("Size independent compilation of " + programFilename + " possible: " + possible);
+        }
+        sizeIndependentCompilationPossibleMap.put(key, possible);
+        return possible;
+    }
+
+    private static int countOccurrences(String text, String pattern) {
+        int count = 0;
+        int position = text.indexOf(pattern);
+        while (position >= 0) {
+            count++;
+            position = text.indexOf(pattern, position + pattern.length());
+        }
+        return count;
+    }
+
+    private final HashMap<String, String> sizeIndependentSourceCodeCache = new HashMap<String, String>();
+    /**
+     * Rewrites the program source code so that every image parameter of every __kernel function is followed
+     * by three int parameters carrying its width, height and depth. As these parameters are named exactly
+     * like the IMAGE_SIZE_..._WIDTH/HEIGHT/DEPTH defines, all GET_IMAGE_WIDTH(...) macros in the kernel code
+     * read from the parameters instead.
+     */
+    private String getSizeIndependentProgramSource() {
+        String key = getProgramSourceKey();
+
+        if (sizeIndependentSourceCodeCache.containsKey(key)) {
+            return sizeIndependentSourceCodeCache.get(key);
+        }
+
+        String sourceCode = getRawProgramSource();
+        StringBuilder result = new StringBuilder();
+
+        int position = 0;
+        int kernelStart = sourceCode.indexOf("__kernel");
+        while (kernelStart >= 0) {
+            int parameterStart = sourceCode.indexOf("(", kernelStart);
+            int parameterEnd = sourceCode.indexOf(")", parameterStart);
+
+            result.append(sourceCode, position, parameterStart + 1);
+            String[] parameters = sourceCode.substring(parameterStart + 1, parameterEnd).split(",");
+            for (int i = 0; i < parameters.length; i++) {
+                if (i > 0) {
+                    result.append(",");
+                }
+                result.append(parameters[i]);
+                if (parameters[i].contains("IMAGE")) {
+                    String[] temp2 = parameters[i].trim().split("\\s+");
+                    String variableName = temp2[temp2.length - 1];
+
+                    result.append(", const int IMAGE_SIZE_" + variableName + "_WIDTH");
+                    result.append(", const int IMAGE_SIZE_" + variableName + "_HEIGHT");
+                    result.append(", const int IMAGE_SIZE_" + variableName + "_DEPTH");
                 }
             }
+
+            position = parameterEnd;
+            kernelStart = sourceCode.indexOf("__kernel", parameterEnd);
+        }
+        result.append(sourceCode.substring(position));
+
+        String sizeIndependentSource = result.toString();
+        sizeIndependentSourceCodeCache.put(key, sizeIndependentSource);
+        return sizeIndependentSource;
+    }
+
+    private String programSourceKey = null;
+    private String getProgramSourceKey() {
+        if (programSourceKey == null) {
+            programSourceKey = anchorClass.getName() + "_" + programFilename;
+        }
+        return programSourceKey;
+    }
+
+    private final HashMap<String, String> rawSourceCodeCache = new HashMap<String, String>();
+    private String getRawProgramSource() {
+        String key = getProgramSourceKey();
+
+        if (programSourceCode != null) {
+            return programSourceCode;
+        }
+        if (rawSourceCodeCache.containsKey(key)) {
+            return rawSourceCodeCache.get(key);
+        }
+        String source = readProgramSource(anchorClass, programFilename);
+        rawSourceCodeCache.put(key, source);
+        return source;
+    }
+
+    /**
+     * Reads an OpenCL program file located next to the given class.
+     *
+     * @param anchorClass class the program file is located next to
+     * @param programFilename name of the program file
+     * @return the source code or an empty String if it cannot be read
+     */
+    static String readProgramSource(Class anchorClass, String programFilename) {
+        StringBuilder source = new StringBuilder();
+        try {
+            InputStream inputStream = anchorClass.getResourceAsStream(programFilename);
+            if (inputStream == null) {
+                throw new IOException("Cannot find " + programFilename + " relative to " + anchorClass.getName());
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                source.append(line);
+                source.append("\n");
+            }
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return source.toString();
+    }
+
+    private HashMap<String, ArrayList<String>> variableListMap = new HashMap<String, ArrayList<String>>();
+    private ArrayList<String> getImageVariablesFromSource() {
+        String key = getProgramSourceKey();
+
+        if (variableListMap.containsKey(key)) {
+            return variableListMap.get(key);
+        }
+        ArrayList<String> variableList = new ArrayList<String>();
+        for (KernelSignature signature : getKernelSignatures().values()) {
+            variableList.addAll(signature.getImageNames());
         }
 
         variableListMap.put(key, variableList);
@@ -391,8 +730,11 @@ public class CLKernelExecutor {
 
     private final HashMap<String, String> sourceCodeCache = new HashMap<String, String>();
     protected String getProgramSource() {
-        String key = anchorClass.getName() + "_" + programFilename;
+        String key = getProgramSourceKey();
 
+        if (programSourceCode != null) {
+            return programSourceCode;
+        }
         if (sourceCodeCache.containsKey(key)) {
             return sourceCodeCache.get(key);
         }
@@ -408,13 +750,29 @@ public class CLKernelExecutor {
     }
 
     public void setAnchorClass(Class anchorClass) {
+        if (this.anchorClass != anchorClass) {
+            programSourceKey = null;
+        }
         this.anchorClass = anchorClass;
     }
 
     public void setProgramFilename(String programFilename) {
+        if (this.programFilename == null || !this.programFilename.equals(programFilename)) {
+            programSourceKey = null;
+        }
         this.programFilename = programFilename;
     }
 
+    /**
+     * Set source code of a program which is not stored in a file, e.g. generated code. The program
+     * filename then serves as name of the program and must be unique for every source code.
+     *
+     * @param programSourceCode OpenCL source code or null to load the program file
+     */
+    public void setProgramSourceCode(String programSourceCode) {
+        this.programSourceCode = programSourceCode;
+    }
+
     public void setKernelName(String kernelName) {
         this.kernelName = kernelName;
     }
@@ -423,51 +781,296 @@ public class CLKernelExecutor {
         this.globalSizes = globalSizes;
     }
 
-    protected ClearCLKernel getKernel(ClearCLContext context, String kernelName) throws IOException {
-        return this.getKernel(context, kernelName, (Map) null);
+    /**
+     * In size independent mode, image width, height and depth are handed over to the kernels as
+     * arguments instead of being compiled into the program. Thus, the program cache only depends on
+     * the types of the images and not on their sizes. Programs which use image sizes as compile time
+     * constants (e.g. histogram.cl) are still compiled for every image size.
+     *
+     * @param sizeIndependentCompilation true to enable size independent compilation
+     */
+    public void setSizeIndependentCompilation(boolean sizeIndependentCompilation) {
+        this.sizeIndependentCompilation = sizeIndependentCompilation;
+    }
+
+    public boolean isSizeIndependentCompilation() {
+        return sizeIndependentCompilation;
+    }
+
+    /**
+     * Set a cache for storing compiled programs on disk. Programs found in this cache are loaded instead
+     * of compiling them.
+     *
+     * @param programBinaryCache cache or null to disable
+     */
+    public void setProgramBinaryCache(ProgramBinaryCache programBinaryCache) {
+        this.programBinaryCache = programBinaryCache;
+    }
+
+    public ProgramBinaryCache getProgramBinaryCache() {
+        return programBinaryCache;
+    }
+
+    /**
+     * Set the cache where built programs are stored. Caches can be shared between executors.
+     *
+     * @param programCache program cache
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        // the current program belongs to the former cache
+        setCurrentProgram(null);
+        this.programCache = programCache;
+    }
+
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
+    public long getProgramCacheHitCount() {
+        return programCache.getHitCount();
+    }
+
+    public long getProgramCacheMissCount() {
+        return programCache.getMissCount();
+    }
+
+    public double getProgramCacheHitRate() {
+        return programCache.getHitRate();
+    }
+
+    private ProgramCacheKey getProgramCacheKey(ClearCLImage srcImage, ClearCLImage dstImage, ClearCLBuffer srcBuffer, ClearCLBuffer dstBuffer) {
+        Object sourceType = srcImage != null ? srcImage.getChannelDataType() : (srcBuffer != null ? srcBuffer.getNativeType() : null);
+        Object destinationType = dstImage != null ? dstImage.getChannelDataType() : (dstBuffer != null ? dstBuffer.getNativeType() : null);
+        // the defines of both are applied if there are an image and a buffer
+        Object sourceBufferType = srcImage != null && srcBuffer != null ? srcBuffer.getNativeType() : null;
+        Object destinationBufferType = dstImage != null && dstBuffer != null ? dstBuffer.getNativeType() : null;
+
+        String[] imageNames;
+        long[] imageSizes;
+        if (currentlySizeIndependent) {
+            imageNames = NO_IMAGE_NAMES;
+            imageSizes = NO_IMAGE_SIZES;
+        } else {
+            imageNames = getSortedImageNames();
+            imageSizes = getImageSizes(imageNames);
+            if (imageSizes == null) {
+                // a parameter which used to be an image isn't one anymore
+                imageNames = sortImageNames();
+                imageSizes = getImageSizes(imageNames);
+            }
+        }
+
+        // subsequent launches of the same kernel with equal images don't need a new key
+        ProgramCacheKey key = lastProgramCacheKey;
+        if (key != null && key.matches(anchorClass, programFilename, currentlySizeIndependent, MAX_ARRAY_SIZE, sourceType, destinationType, sourceBufferType, destinationBufferType, imageNames, imageSizes)) {
+            return key;
+        }
+        key = new ProgramCacheKey(anchorClass, programFilename, currentlySizeIndependent, MAX_ARRAY_SIZE, sourceType, destinationType, sourceBufferType, destinationBufferType, imageNames, imageSizes.clone());
+        lastProgramCacheKey = key;
+        return key;
+    }
+
+    private ProgramCacheKey lastProgramCacheKey = null;
+    private final HashMap<String, HashMap<Set<String>, String[]>> sortedImageNameMap = new HashMap<String, HashMap<Set<String>, String[]>>();
+    /**
+     * Names of the image parameters in the current parameter map, sorted, because the iteration order of
+     * maps with equal keys may differ. They are determined once per program file and set of parameter names.
+     */
+    private String[] getSortedImageNames() {
+        HashMap<Set<String>, String[]> namesByParameters = sortedImageNameMap.get(getProgramSourceKey());
+        if (namesByParameters == null) {
+            namesByParameters = new HashMap<Set<String>, String[]>();
+            sortedImageNameMap.put(getProgramSourceKey(), namesByParameters);
+        }
+        String[] imageNames = namesByParameters.get(parameterMap.keySet());
+        if (imageNames == null) {
+            imageNames = sortImageNames();
+            namesByParameters.put(new HashSet<String>(parameterMap.keySet()), imageNames);
+        }
+        return imageNames;
+    }
+
+    private String[] sortImageNames() {
+        ArrayList<String> names = new ArrayList<String>();
+        for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+            if (entry.getValue() instanceof ClearCLImage || entry.getValue() instanceof ClearCLBuffer) {
+                names.add(entry.getKey());
+            }
+        }
+        Collections.sort(names);
+        return names.toArray(new String[0]);
     }
 
-    protected ClearCLKernel getKernel(ClearCLContext context, String kernelName, Map<String, Object> defines) throws IOException {
+    private long[] imageSizeBuffer = NO_IMAGE_SIZES;
+    /**
+     * Fills width, height and depth of the given images into an array which is reused between launches.
+     *
+     * @return the filled array or null if one of the parameters is not an image
+     */
+    private long[] getImageSizes(String[] imageNames) {
+        if (imageSizeBuffer.length != imageNames.length * 3) {
+            imageSizeBuffer = new long[imageNames.length * 3];
+        }
+        long[] imageSizes = imageSizeBuffer;
+        for (int i = 0; i < imageNames.length; i++) {
+            Object value = parameterMap.get(imageNames[i]);
+            if (value instanceof ClearCLImage) {
+                ClearCLImage image = (ClearCLImage) value;
+                imageSizes[i * 3] = image.getWidth();
+                imageSizes[i * 3 + 1] = image.getHeight();
+                imageSizes[i * 3 + 2] = image.getDepth();
+            } else if (value instanceof ClearCLBuffer) {
+                ClearCLBuffer buffer = (ClearCLBuffer) value;
+                imageSizes[i * 3] = buffer.getWidth();
+                imageSizes[i * 3 + 1] = buffer.getHeight();
+                imageSizes[i * 3 + 2] = buffer.getDepth();
+            } else {
+                return null;
+            }
+        }
+        return imageSizes;
+    }
+
+    private Map<String, Object> getOpenCLDefines(ClearCLImage srcImage, ClearCLImage dstImage, ClearCLBuffer srcBuffer, ClearCLBuffer dstBuffer) {
+        Map<String, Object> openCLDefines = new HashMap();
+        openCLDefines.put("MAX_ARRAY_SIZE", MAX_ARRAY_SIZE); // needed for median. Median is limited to a given array length to be sorted
+        if (srcImage != null) {
+            getOpenCLDefines(openCLDefines, srcImage.getChannelDataType(), true);
+        }
+        if (dstImage != null) {
+            getOpenCLDefines(openCLDefines, dstImage.getChannelDataType(), false);
+        }
+        if (srcBuffer != null) {
+            getOpenCLDefines(openCLDefines, srcBuffer.getNativeType(), true);
+        }
+        if (dstBuffer != null) {
+            getOpenCLDefines(openCLDefines, dstBuffer.getNativeType(), false);
+        }
+
+        // deal with image width/height/depth for all images and buffers
+        ArrayList<String> definedParameterKeys = new ArrayList<String>();
+        for (String key : parameterMap.keySet()) {
+            if (currentlySizeIndependent) {
+                // sizes are set as arguments after the kernel was created
+            } else if (parameterMap.get(key) instanceof ClearCLImage) {
+                ClearCLImage image = (ClearCLImage) parameterMap.get(key);
+                openCLDefines.put("IMAGE_SIZE_" + key + "_WIDTH", image.getWidth());
+                openCLDefines.put("IMAGE_SIZE_" + key + "_HEIGHT", image.getHeight());
+                openCLDefines.put("IMAGE_SIZE_" + key + "_DEPTH", image.getDepth());
+            } else if (parameterMap.get(key) instanceof ClearCLBuffer) {
+                ClearCLBuffer image = (ClearCLBuffer) parameterMap.get(key);
+                openCLDefines.put("IMAGE_SIZE_" + key + "_WIDTH", image.getWidth());
+                openCLDefines.put("IMAGE_SIZE_" + key + "_HEIGHT", image.getHeight());
+                openCLDefines.put("IMAGE_SIZE_" + key + "_DEPTH", image.getDepth());
+            }
+            definedParameterKeys.add(key);
+        }
+
+        openCLDefines.put("GET_IMAGE_IN_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
+        openCLDefines.put("GET_IMAGE_IN_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
+        openCLDefines.put("GET_IMAGE_IN_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
+        openCLDefines.put("GET_IMAGE_OUT_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
+        openCLDefines.put("GET_IMAGE_OUT_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
+        openCLDefines.put("GET_IMAGE_OUT_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
+        openCLDefines.put("GET_IMAGE_WIDTH(image_key)", "IMAGE_SIZE_ ## image_key ## _WIDTH");
+        openCLDefines.put("GET_IMAGE_HEIGHT(image_key)", "IMAGE_SIZE_ ## image_key ## _HEIGHT");
+        openCLDefines.put("GET_IMAGE_DEPTH(image_key)", "IMAGE_SIZE_ ## image_key ## _DEPTH");
+
+        // add undefined parameters to define list
+        ArrayList<String> variableNames = currentlySizeIndependent ? new ArrayList<String>() : getImageVariablesFromSource();
+        for (String variableName : variableNames) {
 
-        String programCacheKey = anchorClass.getCanonicalName() + " " + programFilename;
-        for (String key : defines.keySet()) {
-            programCacheKey = programCacheKey + " " + (key + " = " + defines.get(key));
+            boolean existsAlready = false;
+            for (String key : definedParameterKeys) {
+                if(key.compareTo(variableName) == 0) {
+                    existsAlready = true;
+                    break;
+                }
+            }
+            if (!existsAlready) {
+                openCLDefines.put("IMAGE_SIZE_" + variableName + "_WIDTH", 0);
+                openCLDefines.put("IMAGE_SIZE_" + variableName + "_HEIGHT", 0);
+                openCLDefines.put("IMAGE_SIZE_" + variableName + "_DEPTH", 0);
+            }
         }
+
         if (CLIJ.debug) {
-            System.out.println("Program cache hash:" + programCacheKey);
+            for (String key : openCLDefines.keySet()) {
+                System.out.println(key + " = " + openCLDefines.get(key));
+            }
         }
-        ClearCLProgram clProgram = this.programCacheMap.get(programCacheKey);
-        currentProgram = clProgram;
-        if (clProgram == null) {
+        return openCLDefines;
+    }
+
+    private ClearCLProgram buildProgram(ClearCLContext context, ProgramCacheKey programCacheKey, Map<String, Object> defines) throws IOException {
+        long buildStartTime = System.nanoTime();
+        ClearCLProgram clProgram;
+        if (currentlySizeIndependent) {
+            clProgram = context.createProgram(getSizeIndependentProgramSource());
+        } else if (programSourceCode != null) {
+            clProgram = context.createProgram(programSourceCode);
+        } else {
             clProgram = context.createProgram(this.anchorClass, new String[]{this.programFilename});
-            if (defines != null) {
-                Iterator iterator = defines.entrySet().iterator();
-
-                while (iterator.hasNext()) {
-                    Map.Entry<String, Object> entry = (Map.Entry) iterator.next();
-                    if (entry.getValue() instanceof String) {
-                        clProgram.addDefine((String) entry.getKey(), (String) entry.getValue());
-                    } else if (entry.getValue() instanceof Number) {
-                        clProgram.addDefine((String) entry.getKey(), (Number) entry.getValue());
-                    } else if (entry.getValue() == null) {
-                        clProgram.addDefine((String) entry.getKey());
-                    }
+        }
+        if (defines != null) {
+            Iterator iterator = defines.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, Object> entry = (Map.Entry) iterator.next();
+                if (entry.getValue() instanceof String) {
+                    clProgram.addDefine((String) entry.getKey(), (String) entry.getValue());
+                } else if (entry.getValue() instanceof Number) {
+                    clProgram.addDefine((String) entry.getKey(), (Number) entry.getValue());
+                } else if (entry.getValue() == null) {
+                    clProgram.addDefine((String) entry.getKey());
                 }
             }
+        }
 
-            clProgram.addBuildOptionAllMathOpt();
+        clProgram.addBuildOptionAllMathOpt();
+        if (programBinaryCache == null || !programBinaryCache.load(context, clProgram, programCacheKey)) {
             clProgram.buildAndLog();
-            //System.out.println("status: " + mProgram.getBuildStatus());
-            //System.out.println("LOG: " + this.mProgram.getBuildLog());
+            if (programBinaryCache != null) {
+                programBinaryCache.store(context, clProgram, programCacheKey);
+            }
+        }
+        //System.out.println("status: " + mProgram.getBuildStatus());
+        //System.out.println("LOG: " + this.mProgram.getBuildLog());
 
-            programCacheMap.put(programCacheKey, clProgram);
+        // another executor sharing the cache may have built the same program in the meantime
+        clProgram = programCache.put(programCacheKey, clProgram, System.nanoTime() - buildStartTime);
+
+        // putting a program into the cache may have evicted others
+        closeKernelsOfEvictedPrograms();
+        return clProgram;
+    }
+
+    protected ClearCLKernel getKernel(ClearCLProgram clProgram, String kernelName) {
+        if (!kernelReuse && !kernelCache.isEmpty()) {
+            closeKernels();
         }
-        //System.out.println(clProgram.getSourceCode());
-        //System.out.println(pKernelName);
 
+        KernelCacheKey kernelCacheKey = null;
+        if (kernelReuse) {
+            // subsequent launches of the same kernel don't need a new key
+            if (lastKernelCacheKey != null && lastKernelCacheKey.matches(clProgram, kernelName)) {
+                kernelCacheKey = lastKernelCacheKey;
+            } else {
+                kernelCacheKey = new KernelCacheKey(clProgram, kernelName);
+                lastKernelCacheKey = kernelCacheKey;
+            }
+            ClearCLKernel kernel = kernelCache.get(kernelCacheKey);
+            if (kernel != null) {
+                return kernel;
+            }
+        }
 
         try {
-            return clProgram.createKernel(kernelName);
+            ClearCLKernel kernel = clProgram.createKernel(kernelName);
+            if (kernelReuse) {
+                kernelCache.put(kernelCacheKey, kernel);
+            }
+            return kernel;
         } catch (OpenCLException e) {
             System.out.println("Error when trying to create kernel " + kernelName);
             e.printStackTrace();
@@ -475,24 +1078,138 @@ public class CLKernelExecutor {
         }
     }
 
-    public void close() {
-        for (String key : programCacheMap.keySet()) {
-            ClearCLProgram program = programCacheMap.get(key);
-            try {
-                program.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    private void closeKernelsOfEvictedPrograms() {
+        Iterator<Map.Entry<KernelCacheKey, ClearCLKernel>> iterator = kernelCache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<KernelCacheKey, ClearCLKernel> entry = iterator.next();
+            if (!programCache.contains(entry.getKey().program)) {
+                entry.getValue().close();
+                iterator.remove();
             }
         }
-        if (currentProgram != null) {
-            try {
-                currentProgram.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            currentProgram = null;
+    }
+
+    private void closeKernels() {
+        for (ClearCLKernel kernel : kernelCache.values()) {
+            kernel.close();
+        }
+        kernelCache.clear();
+        lastKernelCacheKey = null;
+    }
+
+    /**
+     * If enabled, kernels are created once per program, kernel name and thread and reused for later
+     * launches. Only the arguments are set again for every launch. When disabled, cached kernels are
+     * released with the next launch.
+     *
+     * @param kernelReuse true to enable
+     */
+    public void setKernelReuse(boolean kernelReuse) {
+        this.kernelReuse = kernelReuse;
+    }
+
+    public boolean isKernelReuse() {
+        return kernelReuse;
+    }
+
+    /**
+     * Set the command queue kernels are enqueued to. Executors used by different threads should use
+     * different queues.
+     *
+     * @param queue queue or null to use the default queue of the context
+     */
+    public void setQueue(ClearCLQueue queue) {
+        this.queue = queue;
+    }
+
+    public ClearCLQueue getQueue() {
+        return queue == null ? context.getDefaultQueue() : queue;
+    }
+
+    /**
+     * If a tuner is set, local work sizes of neighbourhood kernels are benchmarked on first use and set
+     * for later launches.
+     *
+     * @param localSizeTuner tuner or null to leave the local sizes to the driver
+     */
+    public void setLocalSizeTuner(LocalSizeTuner localSizeTuner) {
+        this.localSizeTuner = localSizeTuner;
+    }
+
+    public LocalSizeTuner getLocalSizeTuner() {
+        return localSizeTuner;
+    }
+
+    /**
+     * If a profiler is set, kernels are executed by the profiler, which records OpenCL profiling timestamps.
+     *
+     * @param profiler profiler or null to disable profiling
+     */
+    public void setProfiler(OpenCLProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public OpenCLProfiler getProfiler() {
+        return profiler;
+    }
+
+    private void setCurrentProgram(ClearCLProgram program) {
+        ClearCLProgram formerProgram = currentProgram;
+        currentProgram = program;
+        if (formerProgram != null) {
+            programCache.release(formerProgram);
         }
+    }
+
+    /**
+     * Counts a kernel enqueued to the queue of this executor.
+     *
+     * @param finished true if the kernel was waited for; as the queue is in-order, all kernels enqueued
+     *                 before are finished as well
+     * @return number of the kernel as counted since this executor was created
+     */
+    public synchronized long kernelEnqueued(boolean finished) {
+        enqueuedKernelCount++;
+        if (finished) {
+            finishedKernelCount = enqueuedKernelCount;
+        }
+        return enqueuedKernelCount;
+    }
+
+    public synchronized long getEnqueuedKernelCount() {
+        return enqueuedKernelCount;
+    }
+
+    /**
+     * Checks if the kernel with the given number is known to be finished, without waiting for the device.
+     */
+    public synchronized boolean isFinished(long kernelNumber) {
+        return closed || kernelNumber <= finishedKernelCount;
+    }
+
+    /**
+     * Waits until all kernels enqueued by this executor are finished.
+     */
+    public synchronized void finish() {
+        if (closed) {
+            return;
+        }
+        long kernelCount = enqueuedKernelCount;
+        getQueue().waitToFinish();
+        finishedKernelCount = Math.max(finishedKernelCount, kernelCount);
+    }
+
+    /**
+     * Closes the kernels of this executor. The program cache may be shared with other executors; it's
+     * cleared by its owner.
+     */
+    public synchronized void close() {
+        closed = true;
+        closeKernels();
+        setCurrentProgram(null);
+    }
 
-        programCacheMap.clear();
+    public synchronized boolean isClosed() {
+        return closed;
     }
 }
@@ -0,0 +1,258 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ExecutionGraph records kernel calls instead of executing them. Every recorded call is a node
+ * which depends on the nodes that wrote the images it accesses before. When the graph is flushed, only
+ * nodes are returned which contribute to an image that is still in use; calls which only write to
+ * released temporary images are skipped.
+ * <p>
+ * Furthermore, the graph manages temporary images: Released images are not closed but kept for
+ * reuse. As recorded kernels are executed in recording order, a released image can be handed out as
+ * a new temporary image immediately, even if recorded kernels still read it.
+ * <p>
+ * Parameters whose names contain "src" or "input" are treated as read-only. All other images are
+ * assumed to be read and written.
+ */
+public class ExecutionGraph {
+
+    public static class Node {
+        private final Class anchorClass;
+        private final String programFilename;
+        private final String programSourceCode;
+        private final String kernelName;
+        private final long[] globalSizes;
+        private final Map<String, Object> parameterMap;
+        private final ArrayList<Node> dependencies = new ArrayList<Node>();
+        private final ArrayList<Object> writtenImages = new ArrayList<Object>();
+
+        private Node(Class anchorClass, String programFilename, String programSourceCode, String kernelName, long[] globalSizes, Map<String, Object> parameterMap) {
+            this.anchorClass = anchorClass;
+            this.programFilename = programFilename;
+            this.programSourceCode = programSourceCode;
+            this.kernelName = kernelName;
+            this.globalSizes = globalSizes == null ? null : globalSizes.clone();
+            // the map is copied as callers (e.g. the TypeFixer) modify it after recording
+            this.parameterMap = new HashMap<String, Object>(parameterMap);
+        }
+
+        public Class getAnchorClass() {
+            return anchorClass;
+        }
+
+        public String getProgramFilename() {
+            return programFilename;
+        }
+
+        public String getProgramSourceCode() {
+            return programSourceCode;
+        }
+
+        public String getKernelName() {
+            return kernelName;
+        }
+
+        public long[] getGlobalSizes() {
+            return globalSizes;
+        }
+
+        public Map<String, Object> getParameterMap() {
+            return parameterMap;
+        }
+
+        public List<Node> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        @Override
+        public String toString() {
+            return "Node " + kernelName + " (" + programFilename + ")";
+        }
+    }
+
+    private ArrayList<Node> nodes = new ArrayList<Node>();
+    private IdentityHashMap<Object, Node> lastWriters = new IdentityHashMap<Object, Node>();
+    private final Set<Object> releasedImages = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final ArrayList<Object> reusableImages = new ArrayList<Object>();
+
+    private long recordedNodeCount = 0;
+    private long eliminatedNodeCount = 0;
+    private long reusedImageCount = 0;
+
+    /**
+     * Records a kernel call.
+     *
+     * @return the recorded node
+     */
+    public synchronized Node record(Class anchorClass, String programFilename, String programSourceCode, String kernelName, long[] globalSizes, Map<String, Object> parameterMap) {
+        Node node = new Node(anchorClass, programFilename, programSourceCode, kernelName, globalSizes, parameterMap);
+        for (String key : node.parameterMap.keySet()) {
+            Object object = node.parameterMap.get(key);
+            if (!isImage(object)) {
+                continue;
+            }
+            Node writer = lastWriters.get(object);
+            if (writer != null && !node.dependencies.contains(writer)) {
+                node.dependencies.add(writer);
+            }
+            if (!(key.contains("src") || key.contains("input"))) {
+                node.writtenImages.add(object);
+            }
+        }
+        for (Object image : node.writtenImages) {
+            lastWriters.put(image, node);
+        }
+        nodes.add(node);
+        recordedNodeCount++;
+        return node;
+    }
+
+    /**
+     * Marks an image as not used by the caller anymore. It will be handed out again by getReusableImage().
+     *
+     * @param image ClearCLBuffer or ClearCLImage
+     */
+    public synchronized void release(Object image) {
+        if (releasedImages.add(image)) {
+            reusableImages.add(image);
+        }
+    }
+
+    /**
+     * Returns a released buffer with the given properties or null if there is none.
+     */
+    public synchronized ClearCLBuffer getReusableBuffer(long[] dimensions, NativeTypeEnum nativeType) {
+        for (Object image : reusableImages) {
+            if (image instanceof ClearCLBuffer &&
+                    ((ClearCLBuffer) image).getNativeType() == nativeType &&
+                    Arrays.equals(((ClearCLBuffer) image).getDimensions(), dimensions)) {
+                reuse(image);
+                return (ClearCLBuffer) image;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a released image with the given properties or null if there is none.
+     */
+    public synchronized ClearCLImage getReusableImage(long[] dimensions, ImageChannelDataType channelDataType) {
+        for (Object image : reusableImages) {
+            if (image instanceof ClearCLImage &&
+                    ((ClearCLImage) image).getChannelDataType() == channelDataType &&
+                    Arrays.equals(((ClearCLImage) image).getDimensions(), dimensions)) {
+                reuse(image);
+                return (ClearCLImage) image;
+            }
+        }
+        return null;
+    }
+
+    private void reuse(Object image) {
+        reusableImages.remove(image);
+        releasedImages.remove(image);
+        reusedImageCount++;
+    }
+
+    /**
+     * Removes all recorded nodes from the graph and returns the nodes which need to be executed in the
+     * returned order. A node needs to be executed if it writes an image which was not released or if a
+     * node depends on it which needs to be executed.
+     *
+     * @return nodes to execute
+     */
+    public synchronized List<Node> flush() {
+        if (nodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<Node> liveNodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            if (!liveNodes.contains(node)) {
+                for (Object image : node.writtenImages) {
+                    if (!releasedImages.contains(image)) {
+                        liveNodes.add(node);
+                        break;
+                    }
+                }
+            }
+            if (liveNodes.contains(node)) {
+                // dependencies were recorded earlier and are visited later in this loop
+                liveNodes.addAll(node.dependencies);
+            }
+        }
+
+        ArrayList<Node> result = new ArrayList<Node>();
+        for (Node node : nodes) {
+            if (liveNodes.contains(node)) {
+                result.add(node);
+            } else {
+                eliminatedNodeCount++;
+            }
+        }
+        nodes = new ArrayList<Node>();
+        lastWriters = new IdentityHashMap<Object, Node>();
+        return result;
+    }
+
+    /**
+     * Closes all released images. Must only be called when no recorded nodes are pending.
+     */
+    public synchronized void closeReleasedImages() {
+        for (Object image : reusableImages) {
+            if (image instanceof ClearCLBuffer) {
+                ((ClearCLBuffer) image).close();
+            } else if (image instanceof ClearCLImage) {
+                ((ClearCLImage) image).close();
+            }
+        }
+        reusableImages.clear();
+        releasedImages.clear();
+    }
+
+    private static boolean isImage(Object object) {
+        return object instanceof ClearCLBuffer || object instanceof ClearCLImage;
+    }
+
+    public synchronized int getNumberOfPendingNodes() {
+        return nodes.size();
+    }
+
+    public synchronized int getNumberOfReleasedImages() {
+        return reusableImages.size();
+    }
+
+    public synchronized long getRecordedNodeCount() {
+        return recordedNodeCount;
+    }
+
+    public synchronized long getEliminatedNodeCount() {
+        return eliminatedNodeCount;
+    }
+
+    public synchronized long getReusedImageCount() {
+        return reusedImageCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExecutionGraph: " + nodes.size() + " pending nodes, " +
+                recordedNodeCount + " recorded, " +
+                eliminatedNodeCount + " eliminated, " +
+                reusedImageCount + " images reused, " +
+                reusableImages.size() + " released images";
+    }
+}
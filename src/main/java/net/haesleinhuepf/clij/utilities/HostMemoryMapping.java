@@ -0,0 +1,150 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLContext;
+import net.haesleinhuepf.clij.clearcl.ClearCLPeerPointer;
+import net.haesleinhuepf.clij.clearcl.enums.HostAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.KernelAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.MemAllocMode;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_context;
+import org.jocl.cl_device_id;
+import org.jocl.cl_mem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static org.jocl.CL.*;
+
+/**
+ * On CPU OpenCL runtimes and integrated GPUs, device memory is host memory. HostMemoryMapping makes use of
+ * that: map() hands out the memory of a buffer as direct ByteBuffer, so that data can be written to it
+ * without an additional copy; wrap() turns an existing direct ByteBuffer into a ClearCLBuffer without
+ * copying at all.
+ * <p>
+ * Only works with the JOCL backend and devices reporting host unified memory; otherwise map() and wrap()
+ * return null. Use CLIJ.push(ByteBuffer, ...) for copying the data to the device in that case.
+ */
+public class HostMemoryMapping {
+    private static final HashMap<cl_device_id, Boolean> hostUnifiedMemory = new HashMap<cl_device_id, Boolean>();
+    private static final Set<ClearCLBuffer> wrappedBuffers = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ClearCLBuffer, Boolean>()));
+
+    /**
+     * @return true if the device of the given context shares its memory with the host
+     */
+    public static boolean isHostUnifiedMemory(ClearCLContext context) {
+        if (!(context.getDevice().getPeerPointer().getPointer() instanceof cl_device_id)) {
+            return false;
+        }
+        cl_device_id clDevice = (cl_device_id) context.getDevice().getPeerPointer().getPointer();
+        synchronized (hostUnifiedMemory) {
+            Boolean result = hostUnifiedMemory.get(clDevice);
+            if (result == null) {
+                try {
+                    int[] unifiedMemory = new int[1];
+                    clGetDeviceInfo(clDevice, CL_DEVICE_HOST_UNIFIED_MEMORY, Sizeof.cl_int, Pointer.to(unifiedMemory), null);
+                    long[] deviceType = new long[1];
+                    clGetDeviceInfo(clDevice, CL_DEVICE_TYPE, Sizeof.cl_long, Pointer.to(deviceType), null);
+                    result = unifiedMemory[0] == CL_TRUE || (deviceType[0] & CL_DEVICE_TYPE_CPU) != 0;
+                } catch (CLException e) {
+                    if (CLIJ.debug) {
+                        e.printStackTrace();
+                    }
+                    result = false;
+                }
+                hostUnifiedMemory.put(clDevice, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Maps the whole buffer into host memory for writing. Its former content is undefined afterwards. Mapping
+     * happens on the default queue: kernels using the buffer on other queues must be finished before. The
+     * buffer must not be used by kernels until unmap() was called.
+     *
+     * @return the mapped memory in native byte order or null if the device doesn't share memory with the host
+     */
+    public static ByteBuffer map(ClearCLContext context, ClearCLBuffer buffer) {
+        if (!isHostUnifiedMemory(context) || !(buffer.getPeerPointer().getPointer() instanceof cl_mem)) {
+            return null;
+        }
+        try {
+            cl_command_queue clQueue = (cl_command_queue) context.getDefaultQueue().getPeerPointer().getPointer();
+            ByteBuffer mapped = clEnqueueMapBuffer(clQueue, (cl_mem) buffer.getPeerPointer().getPointer(), true, CL_MAP_WRITE, 0, buffer.getSizeInBytes(), 0, null, null, null);
+            return mapped.order(ByteOrder.nativeOrder());
+        } catch (CLException e) {
+            if (CLIJ.debug) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Hands memory mapped by map() back to the device.
+     */
+    public static void unmap(ClearCLContext context, ClearCLBuffer buffer, ByteBuffer mapped) {
+        cl_command_queue clQueue = (cl_command_queue) context.getDefaultQueue().getPeerPointer().getPointer();
+        clEnqueueUnmapMemObject(clQueue, (cl_mem) buffer.getPeerPointer().getPointer(), mapped, 0, null, null);
+        clFinish(clQueue);
+    }
+
+    /**
+     * Creates a buffer using the given direct ByteBuffer as storage. The ByteBuffer must be kept and must
+     * not be accessed while the buffer is in use.
+     *
+     * @return the buffer or null if the device doesn't share memory with the host
+     */
+    public static ClearCLBuffer wrap(ClearCLContext context, ByteBuffer directBuffer, NativeTypeEnum nativeType, long[] dimensions) {
+        long sizeInBytes = nativeType.getSizeInBytes();
+        for (long dimension : dimensions) {
+            sizeInBytes *= dimension;
+        }
+        if (!directBuffer.isDirect() || directBuffer.remaining() < sizeInBytes) {
+            throw new IllegalArgumentException("Error: Only direct buffers holding all pixels can be wrapped.");
+        }
+        if (!isHostUnifiedMemory(context) || !(context.getPeerPointer().getPointer() instanceof cl_context)) {
+            return null;
+        }
+
+        try {
+            int[] errorCode = new int[1];
+            cl_mem clBuffer = clCreateBuffer((cl_context) context.getPeerPointer().getPointer(), CL_MEM_READ_WRITE | CL_MEM_USE_HOST_PTR, sizeInBytes, Pointer.to(directBuffer), errorCode);
+            if (errorCode[0] != CL_SUCCESS || clBuffer == null) {
+                return null;
+            }
+            ClearCLBuffer buffer = new ClearCLBuffer(context,
+                    new ClearCLPeerPointer(clBuffer),
+                    MemAllocMode.None,
+                    HostAccessType.ReadWrite,
+                    KernelAccessType.ReadWrite,
+                    1L,
+                    nativeType,
+                    dimensions);
+            wrappedBuffers.add(buffer);
+            return buffer;
+        } catch (CLException e) {
+            if (CLIJ.debug) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the given image was created by wrap() and uses host memory owned by someone else
+     */
+    public static boolean isWrapped(Object image) {
+        return image instanceof ClearCLBuffer && wrappedBuffers.contains(image);
+    }
+}
@@ -0,0 +1,287 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLQueue;
+import net.haesleinhuepf.clij.coremem.offheap.OffHeapMemory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HostSpilling manages SpillableBuffers of a CLIJ instance. If an allocation doesn't fit into device memory
+ * or into the memory budget of the CLIJ instance, the least recently used SpillableBuffers are downloaded to
+ * off-heap host memory and closed on the device. When a kernel is executed with a spilled buffer, it is
+ * uploaded again.
+ * <p>
+ * Buffers bound to the currently executed kernel are never spilled. Before a buffer is spilled, only the command
+ * queue which used it last is finished. Waiting and transferring happen without holding the lock of this
+ * instance, so that other threads can continue executing kernels meanwhile.
+ */
+public class HostSpilling {
+    private final CLIJ clij;
+    private final ArrayList<SpillableBuffer> spillableBuffers = new ArrayList<SpillableBuffer>();
+    private long useCounter = 0;
+
+    private long spillCount = 0;
+    private long spilledBytes = 0;
+    private long restoreCount = 0;
+    private long restoredBytes = 0;
+
+    public HostSpilling(CLIJ clij) {
+        this.clij = clij;
+    }
+
+    /**
+     * Puts the given buffer under management of this instance. Afterwards, it should only be accessed
+     * via the returned handle.
+     */
+    public synchronized SpillableBuffer manage(ClearCLBuffer buffer) {
+        SpillableBuffer spillableBuffer = new SpillableBuffer(this, buffer);
+        spillableBuffer.lastUse = ++useCounter;
+        spillableBuffers.add(spillableBuffer);
+        return spillableBuffer;
+    }
+
+    /**
+     * Uploads the given buffer if it was spilled and marks it as used.
+     *
+     * @return the buffer on the device
+     */
+    public ClearCLBuffer restore(SpillableBuffer spillableBuffer) {
+        synchronized (this) {
+            awaitTransfer(spillableBuffer);
+            if (spillableBuffer.isClosed()) {
+                throw new IllegalArgumentException("Error: The SpillableBuffer was closed already.");
+            }
+            spillableBuffer.lastUse = ++useCounter;
+            if (spillableBuffer.hostCopy == null) {
+                return spillableBuffer.buffer;
+            }
+            spillableBuffer.transferring = true;
+        }
+
+        // allocating may spill other buffers; the lock must not be held meanwhile
+        ClearCLBuffer buffer = null;
+        boolean restored = false;
+        try {
+            buffer = clij.createCLBuffer(spillableBuffer.getDimensions(), spillableBuffer.getNativeType());
+            AllocationScope.untrack(clij, buffer);
+            buffer.readFrom(spillableBuffer.hostCopy, true);
+            restored = true;
+        } finally {
+            synchronized (this) {
+                if (restored) {
+                    spillableBuffer.hostCopy.free();
+                    spillableBuffer.hostCopy = null;
+                    spillableBuffer.buffer = buffer;
+                    restoreCount++;
+                    restoredBytes += spillableBuffer.getSizeInBytes();
+                } else if (buffer != null) {
+                    buffer.close();
+                }
+                spillableBuffer.transferring = false;
+                notifyAll();
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Replaces all SpillableBuffers in the given parameter map by their buffers on the device. The buffers are
+     * not spilled until unpin() is called with the same map.
+     *
+     * @param queue command queue the buffers are used with; it is finished before they are spilled later
+     * @return a copy of the map containing ClearCLBuffers instead of SpillableBuffers
+     */
+    public Map<String, Object> pin(Map<String, Object> parameterMap, ClearCLQueue queue) {
+        // pin all first so that restoring one doesn't spill another
+        synchronized (this) {
+            for (Object parameter : parameterMap.values()) {
+                if (parameter instanceof SpillableBuffer) {
+                    ((SpillableBuffer) parameter).pinCount++;
+                    ((SpillableBuffer) parameter).lastQueue = queue;
+                }
+            }
+        }
+        Map<String, Object> result = new HashMap<String, Object>(parameterMap);
+        try {
+            for (String key : parameterMap.keySet()) {
+                Object parameter = parameterMap.get(key);
+                if (parameter instanceof SpillableBuffer) {
+                    result.put(key, restore((SpillableBuffer) parameter));
+                }
+            }
+        } catch (RuntimeException e) {
+            unpin(parameterMap);
+            throw e;
+        }
+        return result;
+    }
+
+    public synchronized void unpin(Map<String, Object> parameterMap) {
+        for (Object parameter : parameterMap.values()) {
+            if (parameter instanceof SpillableBuffer) {
+                ((SpillableBuffer) parameter).pinCount--;
+            }
+        }
+    }
+
+    public static boolean containsSpillableBuffers(Map<String, Object> parameterMap) {
+        for (Object parameter : parameterMap.values()) {
+            if (parameter instanceof SpillableBuffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Spills least recently used buffers until an allocation of the given size fits into the given memory
+     * accounting and into the given device memory.
+     *
+     * @return true if the allocation fits
+     */
+    public boolean spillUntilFits(MemoryAccounting memoryAccounting, long sizeInBytes, long deviceMemoryInBytes) {
+        while (true) {
+            SpillableBuffer leastRecentlyUsed = null;
+            synchronized (this) {
+                if (memoryAccounting.fits(sizeInBytes, deviceMemoryInBytes)) {
+                    return true;
+                }
+                for (SpillableBuffer spillableBuffer : spillableBuffers) {
+                    if (spillableBuffer.buffer != null && spillableBuffer.pinCount == 0 && !spillableBuffer.transferring &&
+                            (leastRecentlyUsed == null || spillableBuffer.lastUse < leastRecentlyUsed.lastUse)) {
+                        leastRecentlyUsed = spillableBuffer;
+                    }
+                }
+                if (leastRecentlyUsed == null) {
+                    return false;
+                }
+            }
+            // if another thread pinned the buffer meanwhile, the next one is taken
+            spillIfUnpinned(leastRecentlyUsed);
+        }
+    }
+
+    /**
+     * Downloads the given buffer to host memory and closes it on the device.
+     */
+    public void spill(SpillableBuffer spillableBuffer) {
+        if (!spillIfUnpinned(spillableBuffer)) {
+            throw new IllegalStateException("Error: A buffer bound to a kernel cannot be spilled.");
+        }
+    }
+
+    /**
+     * @return false if the buffer is bound to a kernel
+     */
+    private boolean spillIfUnpinned(SpillableBuffer spillableBuffer) {
+        ClearCLQueue queue;
+        synchronized (this) {
+            awaitTransfer(spillableBuffer);
+            if (spillableBuffer.buffer == null) {
+                return true;
+            }
+            if (spillableBuffer.pinCount > 0) {
+                return false;
+            }
+            spillableBuffer.transferring = true;
+            queue = spillableBuffer.lastQueue;
+        }
+
+        OffHeapMemory hostCopy = null;
+        try {
+            // kernels enqueued before may still access the buffer; queues of terminated threads are closed
+            // after they were finished
+            if (queue != null && queue.getPeerPointer() != null) {
+                queue.waitToFinish();
+            }
+            hostCopy = OffHeapMemory.allocateBytes(spillableBuffer.getSizeInBytes());
+            spillableBuffer.buffer.writeTo(hostCopy, true);
+        } catch (RuntimeException e) {
+            if (hostCopy != null) {
+                hostCopy.free();
+                hostCopy = null;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (hostCopy != null) {
+                    spillableBuffer.buffer.close();
+                    spillableBuffer.buffer = null;
+                    spillableBuffer.hostCopy = hostCopy;
+                    spillableBuffer.lastQueue = null;
+                    spillCount++;
+                    spilledBytes += spillableBuffer.getSizeInBytes();
+                    if (CLIJ.debug) {
+                        System.out.println("Spilled " + spillableBuffer);
+                    }
+                }
+                spillableBuffer.transferring = false;
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    private void awaitTransfer(SpillableBuffer spillableBuffer) {
+        while (spillableBuffer.transferring) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Error: Interrupted while waiting for a SpillableBuffer.", e);
+            }
+        }
+    }
+
+    synchronized void close(SpillableBuffer spillableBuffer) {
+        awaitTransfer(spillableBuffer);
+        if (spillableBuffer.buffer != null) {
+            spillableBuffer.buffer.close();
+            spillableBuffer.buffer = null;
+        }
+        if (spillableBuffer.hostCopy != null) {
+            spillableBuffer.hostCopy.free();
+            spillableBuffer.hostCopy = null;
+        }
+        spillableBuffers.remove(spillableBuffer);
+    }
+
+    /**
+     * Closes all managed buffers.
+     */
+    public synchronized void close() {
+        for (SpillableBuffer spillableBuffer : new ArrayList<SpillableBuffer>(spillableBuffers)) {
+            close(spillableBuffer);
+        }
+    }
+
+    public synchronized int getNumberOfSpillableBuffers() {
+        return spillableBuffers.size();
+    }
+
+    public synchronized long getSpillCount() {
+        return spillCount;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public synchronized long getRestoreCount() {
+        return restoreCount;
+    }
+
+    public synchronized long getRestoredBytes() {
+        return restoredBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HostSpilling: " + spillableBuffers.size() + " buffers, " + spillCount + " spills (" + spilledBytes + " bytes), " +
+                restoreCount + " restores (" + restoredBytes + " bytes)";
+    }
+}
@@ -0,0 +1,59 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+/**
+ * The KernelDeclaration describes a kernel call which should be compiled in advance: The OpenCL file
+ * and kernel name, the pixel types of input and output images and the image dimensions. Parameters
+ * declared as two dimensional images (DTYPE_IMAGE_IN_2D/DTYPE_IMAGE_OUT_2D) get the first two
+ * dimensions. If size independent kernel compilation is enabled, only the number of dimensions matters.
+ */
+public class KernelDeclaration {
+    private final Class anchorClass;
+    private final String programFilename;
+    private final String kernelName;
+    private final NativeTypeEnum inputType;
+    private final NativeTypeEnum outputType;
+    private final long[] dimensions;
+
+    public KernelDeclaration(Class anchorClass, String programFilename, String kernelName, NativeTypeEnum inputType, NativeTypeEnum outputType, long[] dimensions) {
+        if (dimensions.length < 2 || dimensions.length > 3) {
+            throw new IllegalArgumentException("Only two or three dimensional kernels can be declared.");
+        }
+        this.anchorClass = anchorClass;
+        this.programFilename = programFilename;
+        this.kernelName = kernelName;
+        this.inputType = inputType;
+        this.outputType = outputType;
+        this.dimensions = dimensions;
+    }
+
+    public Class getAnchorClass() {
+        return anchorClass;
+    }
+
+    public String getProgramFilename() {
+        return programFilename;
+    }
+
+    public String getKernelName() {
+        return kernelName;
+    }
+
+    public NativeTypeEnum getInputType() {
+        return inputType;
+    }
+
+    public NativeTypeEnum getOutputType() {
+        return outputType;
+    }
+
+    public long[] getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public String toString() {
+        return programFilename + " " + kernelName + " " + inputType + " -> " + outputType + " " + dimensions.length + "D";
+    }
+}
@@ -0,0 +1,76 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The KernelExecutionHandle is returned when kernels are executed asynchronously. As CLIJ uses an
+ * in-order command queue per thread, a kernel is finished as soon as the queue of the thread which
+ * enqueued it was finished afterwards. Calling get() finishes this queue.
+ */
+public class KernelExecutionHandle implements Future<Boolean> {
+    private final CLIJ clij;
+    private final CLKernelExecutor executor;
+    private final long kernelNumber;
+    private final boolean enqueued;
+
+    /**
+     * @param clij CLIJ instance the kernel belongs to
+     * @param executor executor which enqueued the kernel
+     * @param kernelNumber number of the kernel as counted by the executor
+     * @param enqueued true if the kernel was enqueued successfully
+     */
+    public KernelExecutionHandle(CLIJ clij, CLKernelExecutor executor, long kernelNumber, boolean enqueued) {
+        this.clij = clij;
+        this.executor = executor;
+        this.kernelNumber = kernelNumber;
+        this.enqueued = enqueued;
+    }
+
+    /**
+     * Enqueued kernels cannot be cancelled.
+     *
+     * @return false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return !enqueued || executor.isFinished(kernelNumber);
+    }
+
+    /**
+     * Waits until the kernel is finished.
+     *
+     * @return true if the kernel was enqueued successfully
+     */
+    @Override
+    public Boolean get() {
+        if (!isDone()) {
+            clij.flush();
+            executor.finish();
+        }
+        return enqueued;
+    }
+
+    /**
+     * Waits until the kernel is finished. The timeout is ignored, because OpenCL queues cannot be
+     * waited for with a timeout.
+     *
+     * @return true if the kernel was enqueued successfully
+     */
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) {
+        return get();
+    }
+}
@@ -0,0 +1,230 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The KernelSignature describes the arguments of an OpenCL kernel: their index, name, kind and
+ * address space. Signatures are parsed once per program source and allow binding arguments by index
+ * and validating parameter maps before a kernel is launched.
+ */
+public class KernelSignature {
+    public enum Kind {
+        /**
+         * Declared with one of the DTYPE_IMAGE_IN/OUT_2D/3D macros; either a ClearCLImage or a ClearCLBuffer
+         */
+        IMAGE_OR_BUFFER,
+        /**
+         * Pointer to __global or __constant memory
+         */
+        BUFFER,
+        /**
+         * image2d_t or image3d_t
+         */
+        IMAGE,
+        /**
+         * Width, height or depth of an image handed over in size independent mode
+         */
+        IMAGE_SIZE,
+        /**
+         * Numbers
+         */
+        SCALAR
+    }
+
+    public enum AddressSpace {
+        GLOBAL,
+        CONSTANT,
+        LOCAL,
+        PRIVATE
+    }
+
+    public static class Argument {
+        private final int index;
+        private final String name;
+        private final Kind kind;
+        private final AddressSpace addressSpace;
+        private final int dimension;
+
+        Argument(int index, String name, Kind kind, AddressSpace addressSpace, int dimension) {
+            this.index = index;
+            this.name = name;
+            this.kind = kind;
+            this.addressSpace = addressSpace;
+            this.dimension = dimension;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public AddressSpace getAddressSpace() {
+            return addressSpace;
+        }
+
+        /**
+         * @return 2 or 3 for images declared two or three dimensional, 0 for all other arguments
+         */
+        public int getDimension() {
+            return dimension;
+        }
+
+        @Override
+        public String toString() {
+            return index + ": " + name + " (" + kind + ", " + addressSpace + ")";
+        }
+    }
+
+    private static final Pattern KERNEL_PATTERN = Pattern.compile("(?<!\\w)(?:__)?kernel\\s+void\\s+(\\w+)\\s*\\(([^)]*)\\)");
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+
+    private final String kernelName;
+    private final Argument[] arguments;
+    private final HashMap<String, Argument> argumentMap = new HashMap<String, Argument>();
+
+    private KernelSignature(String kernelName, Argument[] arguments) {
+        this.kernelName = kernelName;
+        this.arguments = arguments;
+        for (Argument argument : arguments) {
+            argumentMap.put(argument.getName(), argument);
+        }
+    }
+
+    /**
+     * Parses the signatures of all kernels in the given program source.
+     *
+     * @param sourceCode program source code
+     * @return map from kernel names to signatures
+     */
+    public static HashMap<String, KernelSignature> parse(String sourceCode) {
+        HashMap<String, KernelSignature> signatures = new HashMap<String, KernelSignature>();
+        Matcher matcher = KERNEL_PATTERN.matcher(COMMENT_PATTERN.matcher(sourceCode).replaceAll(" "));
+        while (matcher.find()) {
+            String kernelName = matcher.group(1);
+            String parameterText = matcher.group(2).trim();
+            String[] parameters = parameterText.length() == 0 ? new String[0] : parameterText.split(",");
+
+            Argument[] arguments = new Argument[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                arguments[i] = parseArgument(i, parameters[i]);
+            }
+            signatures.put(kernelName, new KernelSignature(kernelName, arguments));
+        }
+        return signatures;
+    }
+
+    private static Argument parseArgument(int index, String declaration) {
+        String[] temp = declaration.trim().replace("*", " * ").split("\\s+");
+        String name = temp[temp.length - 1];
+
+        AddressSpace addressSpace = AddressSpace.PRIVATE;
+        if (declaration.contains("__global") || declaration.contains("global ")) {
+            addressSpace = AddressSpace.GLOBAL;
+        } else if (declaration.contains("__constant") || declaration.contains("constant ")) {
+            addressSpace = AddressSpace.CONSTANT;
+        } else if (declaration.contains("__local") || declaration.contains("local ")) {
+            addressSpace = AddressSpace.LOCAL;
+        }
+
+        Kind kind;
+        if (declaration.contains("DTYPE_IMAGE_")) {
+            kind = Kind.IMAGE_OR_BUFFER;
+            addressSpace = AddressSpace.GLOBAL;
+        } else if (declaration.contains("image2d_t") || declaration.contains("image3d_t")) {
+            kind = Kind.IMAGE;
+            addressSpace = AddressSpace.GLOBAL;
+        } else if (declaration.contains("*")) {
+            kind = Kind.BUFFER;
+        } else if (name.startsWith("IMAGE_SIZE_")) {
+            kind = Kind.IMAGE_SIZE;
+        } else {
+            kind = Kind.SCALAR;
+        }
+        int dimension = 0;
+        if (kind == Kind.IMAGE_OR_BUFFER || kind == Kind.IMAGE) {
+            dimension = (declaration.contains("_2D") || declaration.contains("image2d_t")) ? 2 : 3;
+        }
+        return new Argument(index, name, kind, addressSpace, dimension);
+    }
+
+    public String getKernelName() {
+        return kernelName;
+    }
+
+    public Argument[] getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @param name argument name
+     * @return the argument with the given name or null if there is none
+     */
+    public Argument getArgument(String name) {
+        return argumentMap.get(name);
+    }
+
+    /**
+     * Checks that a parameter map fits to this signature: All parameters must exist and images must be
+     * handed over as image arguments. Furthermore, all arguments which are not image sizes must be set.
+     *
+     * @param parameterMap parameters of a kernel call
+     * @throws IllegalArgumentException if the parameters don't fit
+     */
+    public void validate(Map<String, Object> parameterMap) {
+        for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
+            Argument argument = argumentMap.get(entry.getKey());
+            if (argument == null || argument.getKind() == Kind.IMAGE_SIZE) {
+                throw new IllegalArgumentException("Error: kernel " + kernelName + " has no parameter " + entry.getKey());
+            }
+            Object value = entry.getValue();
+            boolean isImage = value instanceof ClearCLImage || value instanceof ClearCLBuffer;
+            if ((argument.getKind() == Kind.SCALAR) == isImage) {
+                throw new IllegalArgumentException("Error: parameter " + entry.getKey() + " of kernel " + kernelName + " cannot be " + value);
+            }
+        }
+        for (Argument argument : arguments) {
+            if (argument.getKind() != Kind.IMAGE_SIZE && !parameterMap.containsKey(argument.getName())) {
+                throw new IllegalArgumentException("Error: parameter " + argument.getName() + " of kernel " + kernelName + " is missing");
+            }
+        }
+    }
+
+    /**
+     * @return the names of all image parameters
+     */
+    public ArrayList<String> getImageNames() {
+        ArrayList<String> names = new ArrayList<String>();
+        for (Argument argument : arguments) {
+            if (argument.getKind() == Kind.IMAGE_OR_BUFFER || argument.getKind() == Kind.IMAGE) {
+                names.add(argument.getName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(kernelName + "(");
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(arguments[i]);
+        }
+        return text.append(")").toString();
+    }
+}
@@ -0,0 +1,207 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.enums.HostAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.KernelAccessType;
+import net.haesleinhuepf.clij.clearcl.enums.MemAllocMode;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The KernelWarmUp builds OpenCL programs in advance on a pool of background threads. The programs end up
+ * in the program cache of the given CLIJ instance, so that the first call of a kernel is as fast as all
+ * later calls. Built programs are also stored in the program binary cache if one is set.
+ * <p>
+ * Image arguments are allocated directly in the OpenCL context; they bypass the buffer pool, the memory
+ * budget and host spilling of the CLIJ instance and are closed as soon as the program is built.
+ */
+public class KernelWarmUp {
+    public static int DEFAULT_NUMBER_OF_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final CLIJ clij;
+    private final ConcurrentHashMap<String, HashMap<String, KernelSignature>> signatureMap = new ConcurrentHashMap<String, HashMap<String, KernelSignature>>();
+
+    public KernelWarmUp(CLIJ clij) {
+        this.clij = clij;
+    }
+
+    /**
+     * Builds the programs of all given kernel declarations in the background.
+     *
+     * @param declarations kernels to build
+     * @param numberOfThreads number of threads building in parallel
+     * @return future delivering the number of successfully built kernels
+     */
+    public Future<Integer> precompile(List<KernelDeclaration> declarations, int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is necessary for building kernels.");
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads, (runnable) -> {
+            Thread thread = new Thread(runnable, "CLIJ kernel warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // every thread has its own executor; all of them share the program cache
+        ThreadLocal<CLKernelExecutor> executors = new ThreadLocal<CLKernelExecutor>();
+        AtomicInteger builtKernelCount = new AtomicInteger(0);
+
+        CompletableFuture[] futures = new CompletableFuture[declarations.size()];
+        for (int i = 0; i < futures.length; i++) {
+            KernelDeclaration declaration = declarations.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                if (precompile(declaration, executors)) {
+                    builtKernelCount.incrementAndGet();
+                }
+            }, executorService);
+        }
+
+        CompletableFuture<Integer> result = CompletableFuture.allOf(futures).thenApply((ignored) -> builtKernelCount.get());
+        result.whenComplete((count, exception) -> executorService.shutdown());
+        return result;
+    }
+
+    private boolean precompile(KernelDeclaration declaration, ThreadLocal<CLKernelExecutor> executors) {
+        String key = declaration.getAnchorClass().getName() + "_" + declaration.getProgramFilename();
+        HashMap<String, KernelSignature> signatures = signatureMap.computeIfAbsent(key, (ignored) -> getKernelSignatures(declaration.getAnchorClass(), declaration.getProgramFilename()));
+        KernelSignature signature = signatures.get(declaration.getKernelName());
+        if (signature == null) {
+            System.out.println("Warning: Cannot find kernel " + declaration);
+            return false;
+        }
+
+        long[] dimensions = declaration.getDimensions();
+        long[] dimensions2D = new long[]{dimensions[0], dimensions[1]};
+        long[] dimensions3D = new long[]{dimensions[0], dimensions[1], dimensions.length > 2 ? dimensions[2] : 1};
+
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        ArrayList<ClearCLBuffer> buffers = new ArrayList<ClearCLBuffer>();
+        try {
+            for (KernelSignature.Argument argument : signature.getArguments()) {
+                if (argument.getKind() != KernelSignature.Kind.IMAGE_OR_BUFFER) {
+                    continue;
+                }
+                String name = argument.getName();
+                NativeTypeEnum type = (name.contains("dst") || name.contains("output")) ? declaration.getOutputType() : declaration.getInputType();
+                ClearCLBuffer buffer = clij.getClearCLContext().createBuffer(
+                        MemAllocMode.Best,
+                        HostAccessType.ReadWrite,
+                        KernelAccessType.ReadWrite,
+                        1L,
+                        type,
+                        argument.getDimension() == 2 ? dimensions2D : dimensions3D
+                );
+                buffers.add(buffer);
+                parameters.put(name, buffer);
+            }
+
+            CLKernelExecutor executor = executors.get();
+            if (executor == null) {
+                executor = new CLKernelExecutor(clij.getClearCLContext(), declaration.getAnchorClass(), declaration.getProgramFilename(), declaration.getKernelName(), null);
+                executor.setProgramCache(clij.getProgramCache());
+                executor.setProgramBinaryCache(clij.getProgramBinaryCache());
+                executors.set(executor);
+            }
+            executor.setSizeIndependentCompilation(clij.isSizeIndependentKernelCompilation());
+            executor.setAnchorClass(declaration.getAnchorClass());
+            executor.setProgramFilename(declaration.getProgramFilename());
+            executor.setKernelName(declaration.getKernelName());
+            executor.setParameterMap(parameters);
+            boolean built = executor.precompile();
+            if (CLIJ.debug) {
+                System.out.println("Warmed up " + declaration + ": " + built);
+            }
+            return built;
+        } catch (Exception e) {
+            System.out.println("Error when warming up " + declaration);
+            e.printStackTrace();
+            return false;
+        } finally {
+            for (ClearCLBuffer buffer : buffers) {
+                buffer.close();
+            }
+        }
+    }
+
+    /**
+     * Declares all kernels of all OpenCL files located next to the given class. The file test.cl is skipped
+     * as it only contains kernels for testing.
+     *
+     * @param anchorClass class the .cl files are located next to, e.g. Kernels.class
+     * @param pixelType type of input and output images
+     * @param dimensions image size
+     * @return list of kernel declarations
+     */
+    public static ArrayList<KernelDeclaration> getKernelDeclarations(Class anchorClass, NativeTypeEnum pixelType, long[] dimensions) {
+        ArrayList<KernelDeclaration> declarations = new ArrayList<KernelDeclaration>();
+        for (String programFilename : getProgramFilenames(anchorClass)) {
+            if (programFilename.equals("test.cl")) {
+                continue;
+            }
+            for (String kernelName : getKernelSignatures(anchorClass, programFilename).keySet()) {
+                declarations.add(new KernelDeclaration(anchorClass, programFilename, kernelName, pixelType, pixelType, dimensions));
+            }
+        }
+        return declarations;
+    }
+
+    private static HashMap<String, KernelSignature> getKernelSignatures(Class anchorClass, String programFilename) {
+        return KernelSignature.parse(CLKernelExecutor.readProgramSource(anchorClass, programFilename));
+    }
+
+    /**
+     * Lists all .cl files located next to the given class, in a folder or in a jar file.
+     */
+    static ArrayList<String> getProgramFilenames(Class anchorClass) {
+        ArrayList<String> filenames = new ArrayList<String>();
+        URL url = anchorClass.getResource(anchorClass.getSimpleName() + ".class");
+        if (url == null) {
+            return filenames;
+        }
+        try {
+            if (url.getProtocol().equals("file")) {
+                File[] files = new File(url.toURI()).getParentFile().listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".cl")) {
+                            filenames.add(file.getName());
+                        }
+                    }
+                }
+            } else if (url.getProtocol().equals("jar")) {
+                String packagePath = anchorClass.getPackage().getName().replace(".", "/") + "/";
+                JarFile jarFile = ((JarURLConnection) url.openConnection()).getJarFile();
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith(packagePath) && name.endsWith(".cl") && name.indexOf("/", packagePath.length()) < 0) {
+                        filenames.add(name.substring(packagePath.length()));
+                    }
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+        }
+        Collections.sort(filenames);
+        return filenames;
+    }
+}
@@ -0,0 +1,268 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLDevice;
+import net.haesleinhuepf.clij.clearcl.ClearCLKernel;
+import net.haesleinhuepf.clij.clearcl.ClearCLQueue;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_device_id;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import static org.jocl.CL.CL_DEVICE_MAX_WORK_GROUP_SIZE;
+import static org.jocl.CL.clGetDeviceInfo;
+
+/**
+ * The LocalSizeTuner benchmarks candidate local work sizes of neighbourhood kernels on first use and
+ * stores the fastest one per device, kernel, dimensionality and pixel type in a properties file. Later
+ * calls, also in later sessions, use the stored local sizes immediately.
+ * <p>
+ * Tuning executes the kernel several times. Thus, it is only done for kernels reading from and writing
+ * to different images.
+ * <p>
+ * Candidates must divide the global sizes. Launches with global sizes no candidate divides, e.g. odd image
+ * widths, use the driver default and leave the kernel untuned until it is launched with fitting sizes.
+ */
+public class LocalSizeTuner {
+    public static final HashSet<String> TUNABLE_PROGRAMS = new HashSet<String>(Arrays.asList(
+            "filtering.cl",
+            "blur.cl",
+            "binaryProcessing3D.cl"
+    ));
+
+    public static int NUMBER_OF_REPETITIONS = 3;
+
+    private static final String DRIVER_DEFAULT = "driver";
+
+    private static final long[][] CANDIDATES_2D = new long[][]{
+            null,
+            {8, 8},
+            {16, 8},
+            {16, 16},
+            {32, 4},
+            {32, 8},
+            {64, 1}
+    };
+
+    private static final long[][] CANDIDATES_3D = new long[][]{
+            null,
+            {4, 4, 4},
+            {8, 8, 1},
+            {8, 8, 4},
+            {16, 4, 4},
+            {16, 16, 1},
+            {32, 4, 1},
+            {32, 8, 1}
+    };
+
+    private final File file;
+    private final Properties localSizes = new Properties();
+
+    private long tuningCount = 0;
+
+    public LocalSizeTuner(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                localSizes.load(inputStream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public static boolean isTunable(String programFilename) {
+        return programFilename != null && TUNABLE_PROGRAMS.contains(programFilename);
+    }
+
+    public static String getKey(ClearCLDevice device, String programFilename, String kernelName, int dimension, Object pixelType) {
+        return (device.getName() + "_" + programFilename + "_" + kernelName + "_" + dimension + "d_" + pixelType).replace(' ', '_');
+    }
+
+    /**
+     * Returns the stored local sizes for the given key if they divide the given global sizes.
+     *
+     * @param key key as returned by getKey()
+     * @param globalSizes global sizes of the upcoming launch
+     * @return local sizes, null if the driver default was the fastest or the stored sizes don't fit the global
+     * sizes, or an empty array if the kernel was not tuned yet
+     */
+    public synchronized long[] getLocalSizes(String key, long[] globalSizes) {
+        String value = localSizes.getProperty(key);
+        if (value == null) {
+            return new long[0];
+        }
+        if (value.equals(DRIVER_DEFAULT)) {
+            return null;
+        }
+        String[] entries = value.split(",");
+        if (entries.length != globalSizes.length) {
+            return null;
+        }
+        long[] result = new long[entries.length];
+        for (int d = 0; d < entries.length; d++) {
+            result[d] = Long.parseLong(entries[d].trim());
+            // local sizes must divide the global sizes; smaller ones weren't benchmarked and may be slower
+            // than the driver default
+            if (gcd(result[d], globalSizes[d]) != result[d]) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Benchmarks all candidate local sizes with the given kernel, whose arguments and global sizes must be
+     * set already, and stores the fastest. Nothing is stored if no candidate divides the global sizes.
+     *
+     * @param key key as returned by getKey()
+     * @param device device the kernel runs on
+     * @param kernel kernel not used for anything else; local sizes are modified
+     * @param queue queue to run the kernel in
+     * @param globalSizes global sizes of the kernel
+     */
+    public void tune(String key, ClearCLDevice device, ClearCLKernel kernel, ClearCLQueue queue, long[] globalSizes) {
+        List<long[]> candidates = getCandidates(globalSizes, getMaximumWorkGroupSize(device));
+        if (candidates.size() < 2) {
+            // only the driver default fits; storing it would also apply to sizes other candidates fit
+            return;
+        }
+
+        long[] bestLocalSizes = null;
+        long bestDuration = Long.MAX_VALUE;
+        for (long[] candidate : candidates) {
+            long duration = Long.MAX_VALUE;
+            try {
+                if (candidate != null) {
+                    kernel.setLocalSizes(candidate);
+                }
+                // warm up
+                kernel.run(queue, true);
+                for (int i = 0; i < NUMBER_OF_REPETITIONS; i++) {
+                    long timeStamp = System.nanoTime();
+                    kernel.run(queue, true);
+                    duration = Math.min(duration, System.nanoTime() - timeStamp);
+                }
+            } catch (RuntimeException e) {
+                // e.g. the work group is too large for this kernel
+                if (CLIJ.debug) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            if (CLIJ.debug) {
+                System.out.println("Local sizes " + Arrays.toString(candidate) + " of " + key + " took " + duration + " nsec");
+            }
+            if (duration < bestDuration) {
+                bestDuration = duration;
+                bestLocalSizes = candidate;
+            }
+        }
+
+        store(key, bestLocalSizes);
+    }
+
+    /**
+     * @return true if local sizes other than the driver default can be benchmarked with the given global
+     * sizes. Otherwise, tune() doesn't store anything and the kernel is tuned with the next fitting global sizes.
+     */
+    public boolean hasCandidates(ClearCLDevice device, long[] globalSizes) {
+        return getCandidates(globalSizes, getMaximumWorkGroupSize(device)).size() > 1;
+    }
+
+    private List<long[]> getCandidates(long[] globalSizes, long maximumWorkGroupSize) {
+        ArrayList<long[]> result = new ArrayList<long[]>();
+        for (long[] candidate : globalSizes.length == 3 ? CANDIDATES_3D : CANDIDATES_2D) {
+            if (candidate == null) {
+                result.add(null);
+                continue;
+            }
+            if (candidate.length != globalSizes.length) {
+                continue;
+            }
+            long workGroupSize = 1;
+            boolean fits = true;
+            for (int d = 0; d < candidate.length; d++) {
+                workGroupSize *= candidate[d];
+                if (globalSizes[d] % candidate[d] != 0) {
+                    fits = false;
+                }
+            }
+            if (fits && workGroupSize <= maximumWorkGroupSize) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void store(String key, long[] bestLocalSizes) {
+        String value = DRIVER_DEFAULT;
+        if (bestLocalSizes != null) {
+            StringBuilder builder = new StringBuilder();
+            for (int d = 0; d < bestLocalSizes.length; d++) {
+                if (d > 0) {
+                    builder.append(",");
+                }
+                builder.append(bestLocalSizes[d]);
+            }
+            value = builder.toString();
+        }
+        localSizes.setProperty(key, value);
+        tuningCount++;
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists()) {
+            directory.mkdirs();
+        }
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            localSizes.store(outputStream, "CLIJ local work sizes");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long getMaximumWorkGroupSize(ClearCLDevice device) {
+        Object peer = device.getPeerPointer().getPointer();
+        if (peer instanceof cl_device_id) {
+            long[] value = new long[1];
+            clGetDeviceInfo((cl_device_id) peer, CL_DEVICE_MAX_WORK_GROUP_SIZE, Sizeof.size_t, Pointer.to(value), null);
+            return value[0];
+        }
+        return 256;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long temp = a % b;
+            a = b;
+            b = temp;
+        }
+        return a;
+    }
+
+    public synchronized long getTuningCount() {
+        return tuningCount;
+    }
+
+    public synchronized void clear() {
+        localSizes.clear();
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+}
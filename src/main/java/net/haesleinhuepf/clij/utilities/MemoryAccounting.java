@@ -0,0 +1,196 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The MemoryAccounting keeps track of the ClearCLBuffers and ClearCLImages allocated by one CLIJ instance.
+ * Images count as allocated until they are closed. Images which are garbage collected without being
+ * closed don't count anymore, as coremem's RessourceCleaner frees them.
+ * <p>
+ * Allocated bytes are kept as a running sum. Images released via released() are subtracted immediately;
+ * images closed directly are detected by a sweep, which runs when an allocation seems to exceed the budget,
+ * when statistics are queried and after a number of allocations proportional to the number of tracked
+ * images. Thus, the peak may include images which were closed directly shortly before.
+ * <p>
+ * Optionally, a budget limits the memory the instance may allocate. Allocations exceeding it are
+ * rejected before the OpenCL driver runs out of memory. This allows several workers to share a device.
+ */
+public class MemoryAccounting {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final int MINIMUM_SWEEP_INTERVAL = 64;
+
+    private final WeakHashMap<Object, Long> allocatedImages = new WeakHashMap<Object, Long>();
+    // sum of allocatedImages; may include closed images until the next sweep
+    private long allocatedBytes = 0;
+    private int allocationsSinceSweep = 0;
+    private long budgetInBytes = UNLIMITED;
+    private long peakBytes = 0;
+    private long allocationCount = 0;
+    private long rejectedAllocationCount = 0;
+
+    /**
+     * @param budgetInBytes maximum number of bytes allocated at a time or UNLIMITED
+     */
+    public synchronized void setBudgetInBytes(long budgetInBytes) {
+        if (budgetInBytes <= 0) {
+            throw new IllegalArgumentException("Error: The memory budget must be positive.");
+        }
+        this.budgetInBytes = budgetInBytes;
+    }
+
+    public synchronized long getBudgetInBytes() {
+        return budgetInBytes;
+    }
+
+    /**
+     * @return true if an allocation of the given size fits into the budget
+     */
+    public synchronized boolean fits(long sizeInBytes) {
+        return fits(sizeInBytes, UNLIMITED);
+    }
+
+    /**
+     * @param limitInBytes additional limit, e.g. the memory of the device
+     * @return true if an allocation of the given size fits into the budget and the given limit
+     */
+    public synchronized boolean fits(long sizeInBytes, long limitInBytes) {
+        long limit = Math.min(budgetInBytes, limitInBytes);
+        if (limit == UNLIMITED || allocatedBytes + sizeInBytes <= limit) {
+            return true;
+        }
+        // closed images may still be counted
+        sweep();
+        return allocatedBytes + sizeInBytes <= limit;
+    }
+
+    /**
+     * Throws an IllegalStateException if an allocation of the given size exceeds the budget.
+     */
+    public synchronized void assertFits(long sizeInBytes) {
+        if (!fits(sizeInBytes)) {
+            rejectedAllocationCount++;
+            throw new IllegalStateException("Error: Allocating " + sizeInBytes + " bytes exceeds the memory budget of " +
+                    budgetInBytes + " bytes. Currently allocated: " + allocatedBytes + " bytes.");
+        }
+    }
+
+    /**
+     * Registers a newly allocated image.
+     *
+     * @param image ClearCLBuffer or ClearCLImage
+     */
+    public synchronized void allocated(Object image) {
+        long sizeInBytes = getSizeInBytes(image);
+        Long formerSizeInBytes = allocatedImages.put(image, sizeInBytes);
+        if (formerSizeInBytes != null) {
+            allocatedBytes -= formerSizeInBytes;
+        }
+        allocatedBytes += sizeInBytes;
+        allocationCount++;
+        allocationsSinceSweep++;
+        if (allocationsSinceSweep >= Math.max(MINIMUM_SWEEP_INTERVAL, allocatedImages.size())) {
+            sweep();
+        }
+        peakBytes = Math.max(peakBytes, allocatedBytes);
+    }
+
+    /**
+     * Unregisters an image which is closed or about to be closed.
+     *
+     * @param image ClearCLBuffer or ClearCLImage
+     */
+    public synchronized void released(Object image) {
+        Long sizeInBytes = allocatedImages.remove(image);
+        if (sizeInBytes != null) {
+            allocatedBytes -= sizeInBytes;
+        }
+    }
+
+    /**
+     * @return bytes of all images which are allocated and not closed yet
+     */
+    public synchronized long getAllocatedBytes() {
+        sweep();
+        return allocatedBytes;
+    }
+
+    /**
+     * Removes closed images and recomputes the allocated bytes. Garbage collected images have been removed
+     * from the map already.
+     */
+    private void sweep() {
+        long sum = 0;
+        Iterator<Map.Entry<Object, Long>> iterator = allocatedImages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Long> entry = iterator.next();
+            if (isClosed(entry.getKey())) {
+                iterator.remove();
+            } else {
+                sum += entry.getValue();
+            }
+        }
+        allocatedBytes = sum;
+        allocationsSinceSweep = 0;
+    }
+
+    /**
+     * @return all images which are allocated and not closed yet
+     */
+    public synchronized ArrayList<Object> getAllocatedImages() {
+        sweep();
+        return new ArrayList<Object>(allocatedImages.keySet());
+    }
+
+    public synchronized int getNumberOfAllocatedImages() {
+        sweep();
+        return allocatedImages.size();
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    public synchronized long getRejectedAllocationCount() {
+        return rejectedAllocationCount;
+    }
+
+    public synchronized void resetPeak() {
+        peakBytes = getAllocatedBytes();
+    }
+
+    private static boolean isClosed(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            return ((ClearCLBuffer) image).getPeerPointer() == null;
+        } else if (image instanceof ClearCLImage) {
+            return ((ClearCLImage) image).getPeerPointer() == null;
+        }
+        return true;
+    }
+
+    private static long getSizeInBytes(Object image) {
+        if (image instanceof ClearCLBuffer) {
+            return ((ClearCLBuffer) image).getSizeInBytes();
+        } else if (image instanceof ClearCLImage) {
+            return ((ClearCLImage) image).getSizeInBytes();
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryAccounting: " + getNumberOfAllocatedImages() + " images, " + getAllocatedBytes() + " bytes allocated, peak " +
+                peakBytes + " bytes, budget " + (budgetInBytes == UNLIMITED ? "unlimited" : budgetInBytes + " bytes") + ", " +
+                allocationCount + " allocations, " + rejectedAllocationCount + " rejected";
+    }
+}
@@ -0,0 +1,163 @@
+package net.haesleinhuepf.clij.utilities;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MetricsRegistry collects call counts, bytes touched and latency histograms of kernel calls,
+ * conversions and allocations. Hand it over to CLIJ.setMetricsRegistry() to enable collecting metrics;
+ * without registry, CLIJ doesn't measure anything. Subclasses may override record() to forward
+ * measurements to other monitoring systems.
+ * <p>
+ * Kernel calls are recorded per OpenCL kernel name, not per Kernels/CLIJOps operation.
+ * <p>
+ * Latencies are sorted into logarithmic buckets with eight sub-buckets per power of two. Thus,
+ * percentiles are exact up to 12.5%, while recording needs constant time and memory.
+ */
+public class MetricsRegistry {
+
+    public static class Metric {
+        private static final int SUB_BUCKETS = 8;
+        private static final int NUMBER_OF_BUCKETS = 62 * SUB_BUCKETS;
+
+        private final String name;
+        private final long[] buckets = new long[NUMBER_OF_BUCKETS];
+        private long count = 0;
+        private long bytes = 0;
+        private long totalNanoSeconds = 0;
+        private long maximumNanoSeconds = 0;
+
+        private Metric(String name) {
+            this.name = name;
+        }
+
+        private synchronized void record(long nanoSeconds, long bytes) {
+            if (nanoSeconds < 0) {
+                nanoSeconds = 0;
+            }
+            buckets[getBucketIndex(nanoSeconds)]++;
+            count++;
+            this.bytes += bytes;
+            totalNanoSeconds += nanoSeconds;
+            maximumNanoSeconds = Math.max(maximumNanoSeconds, nanoSeconds);
+        }
+
+        static int getBucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+            return (exponent - 2) * SUB_BUCKETS + subBucket;
+        }
+
+        static long getBucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + 2;
+            long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 3);
+            return lowerBound + (1L << (exponent - 3)) - 1;
+        }
+
+        /**
+         * @param percentile value between 0 and 100
+         * @return latency in nanoseconds which is not exceeded by the given percentage of calls
+         */
+        public synchronized long getPercentileNanoSeconds(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long sum = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                sum += buckets[i];
+                if (sum >= rank && sum > 0) {
+                    return Math.min(getBucketUpperBound(i), maximumNanoSeconds);
+                }
+            }
+            return maximumNanoSeconds;
+        }
+
+        public long getP50NanoSeconds() {
+            return getPercentileNanoSeconds(50);
+        }
+
+        public long getP99NanoSeconds() {
+            return getPercentileNanoSeconds(99);
+        }
+
+        public synchronized long getMaximumNanoSeconds() {
+            return maximumNanoSeconds;
+        }
+
+        public synchronized double getMeanNanoSeconds() {
+            return count == 0 ? 0 : (double) totalNanoSeconds / count;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + ": " + count + " calls, " +
+                    bytes + " bytes, p50 " + (getP50NanoSeconds() / 1000000.0) +
+                    " msec, p99 " + (getP99NanoSeconds() / 1000000.0) +
+                    " msec, max " + (maximumNanoSeconds / 1000000.0) + " msec";
+        }
+    }
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    /**
+     * Records a measurement.
+     *
+     * @param name name of the operation, e.g. "kernel addScalar_2d"
+     * @param nanoSeconds duration
+     * @param bytes size of all images the operation touched
+     */
+    public void record(String name, long nanoSeconds, long bytes) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = metrics.computeIfAbsent(name, Metric::new);
+        }
+        metric.record(nanoSeconds, bytes);
+    }
+
+    /**
+     * @return the metric with the given name or null if nothing was recorded under this name
+     */
+    public Metric getMetric(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * @return all metrics sorted by name
+     */
+    public Map<String, Metric> getMetrics() {
+        return new TreeMap<String, Metric>(metrics);
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("MetricsRegistry:\n");
+        for (Metric metric : getMetrics().values()) {
+            report.append("  ").append(metric).append("\n");
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLContext;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.clearcl.ClearCLProgram;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_context;
+import org.jocl.cl_device_id;
+import org.jocl.cl_event;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+import org.jocl.cl_program;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.jocl.CL.*;
+
+/**
+ * The OpenCLProfiler executes kernels and transfers on a command queue with profiling enabled and
+ * reads the CL_PROFILING_COMMAND_QUEUED/SUBMIT/START/END timestamps of every command. Timings are
+ * aggregated per kernel (or transfer) name and image shape. Thus, it can be told whether a pipeline
+ * is limited by transfers or by computation.
+ * <p>
+ * ClearCL doesn't expose OpenCL events. Therefore, the profiler creates its own queue, creates a
+ * kernel from the built program for every launch and enqueues it via JOCL. Every command is waited
+ * for, so profiling slows down execution. Only works with the JOCL backend.
+ */
+public class OpenCLProfiler {
+
+    public static final String DEVICE_TO_HOST = "transfer device to host";
+    public static final String HOST_TO_DEVICE = "transfer host to device";
+
+    /**
+     * Aggregated timings of all commands with the same name and shape, in nanoseconds.
+     */
+    public static class Statistics {
+        private final String name;
+        private final long[] shape;
+        private long count = 0;
+        private long bytes = 0;
+        private long queuedTime = 0;
+        private long submittedTime = 0;
+        private long executionTime = 0;
+        private long maximumExecutionTime = 0;
+
+        private Statistics(String name, long[] shape) {
+            this.name = name;
+            this.shape = shape;
+        }
+
+        private void add(long queued, long submitted, long start, long end, long bytes) {
+            count++;
+            this.bytes += bytes;
+            queuedTime += submitted - queued;
+            submittedTime += start - submitted;
+            executionTime += end - start;
+            maximumExecutionTime = Math.max(maximumExecutionTime, end - start);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long[] getShape() {
+            return shape;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return sum of times between QUEUED and SUBMIT
+         */
+        public long getQueuedTimeInNanoSeconds() {
+            return queuedTime;
+        }
+
+        /**
+         * @return sum of times between SUBMIT and START
+         */
+        public long getSubmittedTimeInNanoSeconds() {
+            return submittedTime;
+        }
+
+        /**
+         * @return sum of times between START and END
+         */
+        public long getExecutionTimeInNanoSeconds() {
+            return executionTime;
+        }
+
+        public long getMaximumExecutionTimeInNanoSeconds() {
+            return maximumExecutionTime;
+        }
+
+        public boolean isTransfer() {
+            return DEVICE_TO_HOST.equals(name) || HOST_TO_DEVICE.equals(name);
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + Arrays.toString(shape) + ": " +
+                    count + " x, " +
+                    (executionTime / 1000000.0) + " msec execution (max " + (maximumExecutionTime / 1000000.0) + "), " +
+                    (queuedTime / 1000000.0) + " msec queued, " +
+                    (submittedTime / 1000000.0) + " msec submitted" +
+                    (bytes > 0 ? ", " + bytes + " bytes" : "");
+        }
+    }
+
+    private final cl_command_queue queue;
+    private final LinkedHashMap<String, Statistics> statistics = new LinkedHashMap<String, Statistics>();
+
+    public OpenCLProfiler(ClearCLContext context) {
+        if (!(context.getPeerPointer().getPointer() instanceof cl_context)) {
+            throw new IllegalArgumentException("Error: Profiling is only supported by the JOCL backend.");
+        }
+        cl_context clContext = (cl_context) context.getPeerPointer().getPointer();
+        cl_device_id clDevice = (cl_device_id) context.getDevice().getPeerPointer().getPointer();
+        queue = clCreateCommandQueue(clContext, clDevice, CL_QUEUE_PROFILING_ENABLE, null);
+    }
+
+    /**
+     * Executes a kernel and waits for it to finish.
+     *
+     * @param program built program containing the kernel
+     * @param kernelName name of the kernel
+     * @param arguments all kernel arguments in the order of the kernel signature
+     * @param globalSizes global sizes
+     * @param shape image shape the timing is aggregated for
+     */
+    public void runKernel(ClearCLProgram program, String kernelName, Object[] arguments, long[] globalSizes, long[] shape) {
+        cl_kernel kernel = clCreateKernel((cl_program) program.getPeerPointer().getPointer(), kernelName, null);
+        try {
+            for (int i = 0; i < arguments.length; i++) {
+                setArgument(kernel, i, arguments[i]);
+            }
+            cl_event event = new cl_event();
+            clEnqueueNDRangeKernel(queue, kernel, globalSizes.length, null, globalSizes, null, 0, null, event);
+            record(kernelName, shape, event, 0);
+        } finally {
+            clReleaseKernel(kernel);
+        }
+    }
+
+    /**
+     * Copies the content of a buffer to the host.
+     */
+    public void writeTo(ClearCLBuffer source, Buffer target) {
+        cl_event event = new cl_event();
+        clEnqueueReadBuffer(queue, (cl_mem) source.getPeerPointer().getPointer(), CL_TRUE, 0, source.getSizeInBytes(), Pointer.to(target), 0, null, event);
+        record(DEVICE_TO_HOST, source.getDimensions(), event, source.getSizeInBytes());
+    }
+
+    /**
+     * Copies the content of a host buffer to the device.
+     */
+    public void readFrom(ClearCLBuffer target, Buffer source) {
+        cl_event event = new cl_event();
+        clEnqueueWriteBuffer(queue, (cl_mem) target.getPeerPointer().getPointer(), CL_TRUE, 0, target.getSizeInBytes(), Pointer.to(source), 0, null, event);
+        record(HOST_TO_DEVICE, target.getDimensions(), event, target.getSizeInBytes());
+    }
+
+    private static void setArgument(cl_kernel kernel, int index, Object argument) {
+        if (argument instanceof ClearCLBuffer) {
+            clSetKernelArg(kernel, index, Sizeof.cl_mem, Pointer.to((cl_mem) ((ClearCLBuffer) argument).getPeerPointer().getPointer()));
+        } else if (argument instanceof ClearCLImage) {
+            clSetKernelArg(kernel, index, Sizeof.cl_mem, Pointer.to((cl_mem) ((ClearCLImage) argument).getPeerPointer().getPointer()));
+        } else if (argument instanceof Float) {
+            clSetKernelArg(kernel, index, Sizeof.cl_float, Pointer.to(new float[]{(Float) argument}));
+        } else if (argument instanceof Integer) {
+            clSetKernelArg(kernel, index, Sizeof.cl_int, Pointer.to(new int[]{(Integer) argument}));
+        } else if (argument instanceof Double) {
+            clSetKernelArg(kernel, index, Sizeof.cl_double, Pointer.to(new double[]{(Double) argument}));
+        } else if (argument instanceof Long) {
+            clSetKernelArg(kernel, index, Sizeof.cl_long, Pointer.to(new long[]{(Long) argument}));
+        } else if (argument instanceof Short) {
+            clSetKernelArg(kernel, index, Sizeof.cl_short, Pointer.to(new short[]{(Short) argument}));
+        } else if (argument instanceof Byte) {
+            clSetKernelArg(kernel, index, Sizeof.cl_char, Pointer.to(new byte[]{(Byte) argument}));
+        } else {
+            throw new IllegalArgumentException("Error: Unsupported kernel argument " + argument);
+        }
+    }
+
+    private void record(String name, long[] shape, cl_event event, long bytes) {
+        try {
+            clWaitForEvents(1, new cl_event[]{event});
+            long queued = getProfilingInfo(event, CL_PROFILING_COMMAND_QUEUED);
+            long submitted = getProfilingInfo(event, CL_PROFILING_COMMAND_SUBMIT);
+            long start = getProfilingInfo(event, CL_PROFILING_COMMAND_START);
+            long end = getProfilingInfo(event, CL_PROFILING_COMMAND_END);
+
+            String key = name + " " + Arrays.toString(shape);
+            synchronized (statistics) {
+                Statistics entry = statistics.get(key);
+                if (entry == null) {
+                    entry = new Statistics(name, shape.clone());
+                    statistics.put(key, entry);
+                }
+                entry.add(queued, submitted, start, end, bytes);
+            }
+        } finally {
+            clReleaseEvent(event);
+        }
+    }
+
+    private static long getProfilingInfo(cl_event event, int parameter) {
+        long[] value = new long[1];
+        clGetEventProfilingInfo(event, parameter, Sizeof.cl_ulong, Pointer.to(value), null);
+        return value[0];
+    }
+
+    /**
+     * Waits until all commands of the profiling queue are finished.
+     */
+    public void waitToFinish() {
+        clFinish(queue);
+    }
+
+    public List<Statistics> getStatistics() {
+        synchronized (statistics) {
+            return new ArrayList<Statistics>(statistics.values());
+        }
+    }
+
+    public void reset() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    public void close() {
+        clReleaseCommandQueue(queue);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("OpenCLProfiler:\n");
+        for (Statistics entry : getStatistics()) {
+            report.append("  ").append(entry).append("\n");
+        }
+        return report.toString();
+    }
+}
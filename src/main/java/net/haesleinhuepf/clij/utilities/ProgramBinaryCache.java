@@ -0,0 +1,259 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLContext;
+import net.haesleinhuepf.clij.clearcl.ClearCLPeerPointer;
+import net.haesleinhuepf.clij.clearcl.ClearCLProgram;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_context;
+import org.jocl.cl_device_id;
+import org.jocl.cl_program;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import static org.jocl.CL.*;
+
+/**
+ * The ProgramBinaryCache stores compiled OpenCL programs on disk and loads them in later sessions
+ * instead of compiling the source code again. Cache entries are identified by a hash of the device
+ * name, the driver version, the program source code and all defines/build options. Entries which
+ * cannot be read or which are refused by the driver are deleted and the program is built from
+ * source again.
+ * <p>
+ * Only works with the JOCL backend; with any other backend, programs are built from source.
+ */
+public class ProgramBinaryCache {
+    private static final String FILE_HEADER = "CLIJ program binary v1";
+
+    private final File directory;
+    private String deviceIdentifier = null;
+
+    private long loadCount = 0;
+    private long storeCount = 0;
+    private long invalidationCount = 0;
+
+    public ProgramBinaryCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Tries to load a binary of the given program from disk. The program must not have been built yet.
+     *
+     * @param context context the program belongs to
+     * @param program program with all sources and defines added
+     * @param programCacheKey identifier of all defines and build options
+     * @return true if the program was loaded and is ready to create kernels
+     */
+    public synchronized boolean load(ClearCLContext context, ClearCLProgram program, ProgramCacheKey programCacheKey) {
+        if (!(context.getPeerPointer().getPointer() instanceof cl_context)) {
+            return false;
+        }
+        File file = getFile(context, program, programCacheKey);
+        if (!file.exists()) {
+            return false;
+        }
+
+        byte[] binary = readBinary(file, getHash(context, program, programCacheKey));
+        if (binary == null) {
+            invalidate(file);
+            return false;
+        }
+
+        try {
+            cl_context clContext = (cl_context) context.getPeerPointer().getPointer();
+            cl_device_id clDevice = (cl_device_id) context.getDevice().getPeerPointer().getPointer();
+
+            int[] binaryStatus = new int[1];
+            int[] errorCode = new int[1];
+            cl_program clProgram = clCreateProgramWithBinary(clContext, 1, new cl_device_id[]{clDevice}, new long[]{binary.length}, new byte[][]{binary}, binaryStatus, errorCode);
+            if (errorCode[0] != CL_SUCCESS || binaryStatus[0] != CL_SUCCESS) {
+                if (clProgram != null) {
+                    clReleaseProgram(clProgram);
+                }
+                invalidate(file);
+                return false;
+            }
+            if (clBuildProgram(clProgram, 0, null, null, null, null) != CL_SUCCESS) {
+                clReleaseProgram(clProgram);
+                invalidate(file);
+                return false;
+            }
+            program.setPeerPointer(new ClearCLPeerPointer(clProgram));
+        } catch (CLException e) {
+            if (CLIJ.debug) {
+                e.printStackTrace();
+            }
+            invalidate(file);
+            return false;
+        }
+
+        loadCount++;
+        if (CLIJ.debug) {
+            System.out.println("Loaded program binary " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the binary of an already built program on disk.
+     *
+     * @param context context the program belongs to
+     * @param program built program
+     * @param programCacheKey identifier of all defines and build options
+     */
+    public synchronized void store(ClearCLContext context, ClearCLProgram program, ProgramCacheKey programCacheKey) {
+        if (!(program.getPeerPointer().getPointer() instanceof cl_program)) {
+            return;
+        }
+        try {
+            cl_program clProgram = (cl_program) program.getPeerPointer().getPointer();
+
+            long[] binarySize = new long[1];
+            clGetProgramInfo(clProgram, CL_PROGRAM_BINARY_SIZES, Sizeof.size_t, Pointer.to(binarySize), null);
+            if (binarySize[0] == 0) {
+                return;
+            }
+            byte[] binary = new byte[(int) binarySize[0]];
+            Pointer binaryPointer = Pointer.to(binary);
+            clGetProgramInfo(clProgram, CL_PROGRAM_BINARIES, Sizeof.POINTER, Pointer.to(binaryPointer), null);
+
+            writeBinary(getFile(context, program, programCacheKey), getHash(context, program, programCacheKey), binary);
+            storeCount++;
+        } catch (CLException | IOException e) {
+            if (CLIJ.debug) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private File getFile(ClearCLContext context, ClearCLProgram program, ProgramCacheKey programCacheKey) {
+        return new File(directory, getHash(context, program, programCacheKey) + ".bin");
+    }
+
+    private String getHash(ClearCLContext context, ClearCLProgram program, ProgramCacheKey programCacheKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(getDeviceIdentifier(context).getBytes(StandardCharsets.UTF_8));
+            digest.update(program.getSourceCode().getBytes(StandardCharsets.UTF_8));
+            digest.update(programCacheKey.toString().getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hash = new StringBuilder();
+            for (byte value : digest.digest()) {
+                hash.append(String.format("%02x", value));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getDeviceIdentifier(ClearCLContext context) {
+        if (deviceIdentifier == null) {
+            String driverVersion = "";
+            Object device = context.getDevice().getPeerPointer().getPointer();
+            if (device instanceof cl_device_id) {
+                long[] size = new long[1];
+                clGetDeviceInfo((cl_device_id) device, CL_DRIVER_VERSION, 0, null, size);
+                byte[] buffer = new byte[(int) size[0]];
+                clGetDeviceInfo((cl_device_id) device, CL_DRIVER_VERSION, buffer.length, Pointer.to(buffer), null);
+                driverVersion = new String(buffer, 0, Math.max(0, buffer.length - 1), StandardCharsets.UTF_8);
+            }
+            deviceIdentifier = context.getDevice().getName() + " " + context.getDevice().getVersion() + " " + driverVersion;
+        }
+        return deviceIdentifier;
+    }
+
+    private byte[] readBinary(File file, String hash) {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!FILE_HEADER.equals(inputStream.readUTF()) || !hash.equals(inputStream.readUTF())) {
+                return null;
+            }
+            int length = inputStream.readInt();
+            long checksum = inputStream.readLong();
+            if (length <= 0 || length != file.length() - 2 - FILE_HEADER.length() - 2 - hash.length() - 4 - 8) {
+                return null;
+            }
+            byte[] binary = new byte[length];
+            inputStream.readFully(binary);
+
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return binary;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeBinary(File file, String hash, byte[] binary) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create program binary cache directory " + directory);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(binary);
+
+        // write to a temporary file first, so that other processes never read half-written entries
+        File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+            outputStream.writeUTF(FILE_HEADER);
+            outputStream.writeUTF(hash);
+            outputStream.writeInt(binary.length);
+            outputStream.writeLong(crc.getValue());
+            outputStream.write(binary);
+        }
+        if (!temporaryFile.renameTo(file)) {
+            file.delete();
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private void invalidate(File file) {
+        invalidationCount++;
+        if (CLIJ.debug) {
+            System.out.println("Invalidating program binary " + file);
+        }
+        file.delete();
+    }
+
+    /**
+     * Deletes all stored program binaries.
+     */
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".bin")) {
+                file.delete();
+            }
+        }
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getStoreCount() {
+        return storeCount;
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+}
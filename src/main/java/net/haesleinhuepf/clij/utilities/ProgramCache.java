@@ -0,0 +1,219 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLProgram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ProgramCache keeps built OpenCL programs for reuse. Its size is limited: When more programs
+ * are stored than allowed, the least recently used programs are closed and removed from the cache.
+ * Furthermore, it counts hits, misses, evictions and the time spent for building programs to
+ * allow sizing the cache for long running processes.
+ * <p>
+ * The cache may be shared by several executors and threads. Programs handed out by get() and put() are
+ * referenced until they are handed back via release(). Evicted programs are closed when the last
+ * reference is released.
+ */
+public class ProgramCache {
+    public static int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private final LinkedHashMap<ProgramCacheKey, ClearCLProgram> programMap = new LinkedHashMap<ProgramCacheKey, ClearCLProgram>(16, 0.75f, true);
+    // number of references per program handed out and not released yet
+    private final IdentityHashMap<ClearCLProgram, Integer> referenceCounts = new IdentityHashMap<ClearCLProgram, Integer>();
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private long buildCount = 0;
+    private long buildTimeInNanoSeconds = 0;
+
+    /**
+     * Returns the program stored under the given key or null if there is none. The program isn't closed
+     * until it's handed back via release().
+     *
+     * @param key program cache key
+     * @return program or null
+     */
+    public synchronized ClearCLProgram get(ProgramCacheKey key) {
+        ClearCLProgram program = programMap.get(key);
+        if (program == null) {
+            missCount++;
+        } else {
+            hitCount++;
+            acquire(program);
+        }
+        return program;
+    }
+
+    /**
+     * Hands back a program received from get() or put(). If the program was removed from the cache in the
+     * meantime and nobody else references it, it is closed.
+     *
+     * @param program program to release
+     */
+    public synchronized void release(ClearCLProgram program) {
+        Integer referenceCount = referenceCounts.get(program);
+        if (referenceCount == null) {
+            return;
+        }
+        if (referenceCount > 1) {
+            referenceCounts.put(program, referenceCount - 1);
+            return;
+        }
+        referenceCounts.remove(program);
+        if (!programMap.containsValue(program)) {
+            close(program);
+        }
+    }
+
+    private void acquire(ClearCLProgram program) {
+        Integer referenceCount = referenceCounts.get(program);
+        referenceCounts.put(program, referenceCount == null ? 1 : referenceCount + 1);
+    }
+
+    private void closeIfUnreferenced(ClearCLProgram program) {
+        if (!referenceCounts.containsKey(program)) {
+            close(program);
+        }
+    }
+
+    /**
+     * Stores a built program. If the cache is full afterwards, least recently used programs are removed;
+     * they are closed as soon as they aren't referenced anymore. If another program was stored under the
+     * same key in the meantime (e.g. built by another thread), the given program is closed and the cached
+     * one is returned. The returned program must be handed back via release().
+     *
+     * @param key program cache key
+     * @param program built program
+     * @param buildTimeInNanoSeconds time it took to build (or load) the program
+     * @return the program which is stored under the given key
+     */
+    public synchronized ClearCLProgram put(ProgramCacheKey key, ClearCLProgram program, long buildTimeInNanoSeconds) {
+        buildCount++;
+        this.buildTimeInNanoSeconds += buildTimeInNanoSeconds;
+
+        ClearCLProgram formerProgram = programMap.get(key);
+        if (formerProgram != null) {
+            if (formerProgram != program) {
+                close(program);
+            }
+            acquire(formerProgram);
+            return formerProgram;
+        }
+        programMap.put(key, program);
+        acquire(program);
+        evict();
+        return program;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<ProgramCacheKey, ClearCLProgram>> iterator = programMap.entrySet().iterator();
+        while (programMap.size() > maximumSize && iterator.hasNext()) {
+            Map.Entry<ProgramCacheKey, ClearCLProgram> entry = iterator.next();
+            if (CLIJ.debug) {
+                System.out.println("Evicting program " + entry.getKey());
+            }
+            iterator.remove();
+            closeIfUnreferenced(entry.getValue());
+            evictionCount++;
+        }
+    }
+
+    private void close(ClearCLProgram program) {
+        try {
+            program.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks if the given program is (still) part of the cache.
+     *
+     * @param program program to search for
+     * @return true if the program is cached
+     */
+    public synchronized boolean contains(ClearCLProgram program) {
+        return programMap.containsValue(program);
+    }
+
+    /**
+     * Empties the cache and closes all programs; programs still referenced are closed when released.
+     * Statistics are kept.
+     */
+    public synchronized void clear() {
+        ArrayList<ClearCLProgram> programs = new ArrayList<ClearCLProgram>(programMap.values());
+        programMap.clear();
+        for (ClearCLProgram program : programs) {
+            closeIfUnreferenced(program);
+        }
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        buildCount = 0;
+        buildTimeInNanoSeconds = 0;
+    }
+
+    public synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Program cache size must be at least one.");
+        }
+        this.maximumSize = maximumSize;
+        evict();
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized int size() {
+        return programMap.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getBuildCount() {
+        return buildCount;
+    }
+
+    public synchronized double getBuildTimeInMilliseconds() {
+        return buildTimeInNanoSeconds / 1000000.0;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hitCount / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProgramCache: " + programMap.size() + "/" + maximumSize + " programs, " +
+                hitCount + " hits, " +
+                missCount + " misses, " +
+                evictionCount + " evictions, " +
+                buildCount + " builds taking " + getBuildTimeInMilliseconds() + " msec";
+    }
+}
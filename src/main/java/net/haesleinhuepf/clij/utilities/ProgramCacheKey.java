@@ -0,0 +1,157 @@
+package net.haesleinhuepf.clij.utilities;
+
+import java.util.Arrays;
+
+/**
+ * The ProgramCacheKey identifies a built OpenCL program. It consists of the program file, the types
+ * of input and output images, whether the program was compiled size independent and all other
+ * constants which are compiled into the program, such as image sizes. Keys are immutable and their
+ * hash code is computed once, so that looking up programs is cheap for every kernel call.
+ */
+public final class ProgramCacheKey {
+    private final Class anchorClass;
+    private final String programFilename;
+    private final boolean sizeIndependent;
+    private final int maxArraySize;
+    private final Object sourceType;
+    private final Object destinationType;
+    private final Object sourceBufferType;
+    private final Object destinationBufferType;
+    private final String[] imageNames;
+    private final long[] imageSizes;
+    private final int hashCode;
+
+    /**
+     * @param anchorClass class the program file is located next to
+     * @param programFilename name of the .cl file
+     * @param sizeIndependent true if image sizes are handed over as arguments
+     * @param maxArraySize value of the MAX_ARRAY_SIZE constant
+     * @param sourceType NativeTypeEnum of the source buffer, ImageChannelDataType of the source image or null
+     * @param destinationType NativeTypeEnum of the destination buffer, ImageChannelDataType of the destination image or null
+     * @param imageNames names of image parameters whose sizes are compiled into the program
+     * @param imageSizes width, height and depth of every image in imageNames
+     */
+    public ProgramCacheKey(Class anchorClass, String programFilename, boolean sizeIndependent, int maxArraySize, Object sourceType, Object destinationType, String[] imageNames, long[] imageSizes) {
+        this(anchorClass, programFilename, sizeIndependent, maxArraySize, sourceType, destinationType, null, null, imageNames, imageSizes);
+    }
+
+    /**
+     * @param anchorClass class the program file is located next to
+     * @param programFilename name of the .cl file
+     * @param sizeIndependent true if image sizes are handed over as arguments
+     * @param maxArraySize value of the MAX_ARRAY_SIZE constant
+     * @param sourceType NativeTypeEnum of the source buffer, ImageChannelDataType of the source image or null
+     * @param destinationType NativeTypeEnum of the destination buffer, ImageChannelDataType of the destination image or null
+     * @param sourceBufferType NativeTypeEnum of the source buffer if there is a source image as well, otherwise null
+     * @param destinationBufferType NativeTypeEnum of the destination buffer if there is a destination image as well, otherwise null
+     * @param imageNames names of image parameters whose sizes are compiled into the program, sorted
+     * @param imageSizes width, height and depth of every image in imageNames
+     */
+    public ProgramCacheKey(Class anchorClass, String programFilename, boolean sizeIndependent, int maxArraySize, Object sourceType, Object destinationType, Object sourceBufferType, Object destinationBufferType, String[] imageNames, long[] imageSizes) {
+        if (imageSizes.length != imageNames.length * 3) {
+            throw new IllegalArgumentException("Three sizes per image expected.");
+        }
+        this.anchorClass = anchorClass;
+        this.programFilename = programFilename;
+        this.sizeIndependent = sizeIndependent;
+        this.maxArraySize = maxArraySize;
+        this.sourceType = sourceType;
+        this.destinationType = destinationType;
+        this.sourceBufferType = sourceBufferType;
+        this.destinationBufferType = destinationBufferType;
+        this.imageNames = imageNames;
+        this.imageSizes = imageSizes;
+
+        int hash = anchorClass.hashCode();
+        hash = 31 * hash + programFilename.hashCode();
+        hash = 31 * hash + (sizeIndependent ? 1 : 0);
+        hash = 31 * hash + maxArraySize;
+        hash = 31 * hash + (sourceType == null ? 0 : sourceType.hashCode());
+        hash = 31 * hash + (destinationType == null ? 0 : destinationType.hashCode());
+        hash = 31 * hash + (sourceBufferType == null ? 0 : sourceBufferType.hashCode());
+        hash = 31 * hash + (destinationBufferType == null ? 0 : destinationBufferType.hashCode());
+        hash = 31 * hash + Arrays.hashCode(imageNames);
+        hash = 31 * hash + Arrays.hashCode(imageSizes);
+        hashCode = hash;
+    }
+
+    public Class getAnchorClass() {
+        return anchorClass;
+    }
+
+    public String getProgramFilename() {
+        return programFilename;
+    }
+
+    public boolean isSizeIndependent() {
+        return sizeIndependent;
+    }
+
+    /**
+     * Compares this key with the given values without creating a new key.
+     */
+    boolean matches(Class anchorClass, String programFilename, boolean sizeIndependent, int maxArraySize, Object sourceType, Object destinationType, Object sourceBufferType, Object destinationBufferType, String[] imageNames, long[] imageSizes) {
+        return this.anchorClass == anchorClass &&
+                this.sizeIndependent == sizeIndependent &&
+                this.maxArraySize == maxArraySize &&
+                this.sourceType == sourceType &&
+                this.destinationType == destinationType &&
+                this.sourceBufferType == sourceBufferType &&
+                this.destinationBufferType == destinationBufferType &&
+                this.programFilename.equals(programFilename) &&
+                Arrays.equals(this.imageSizes, imageSizes) &&
+                Arrays.equals(this.imageNames, imageNames);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ProgramCacheKey)) {
+            return false;
+        }
+        ProgramCacheKey other = (ProgramCacheKey) obj;
+        return hashCode == other.hashCode &&
+                anchorClass == other.anchorClass &&
+                sizeIndependent == other.sizeIndependent &&
+                maxArraySize == other.maxArraySize &&
+                sourceType == other.sourceType &&
+                destinationType == other.destinationType &&
+                sourceBufferType == other.sourceBufferType &&
+                destinationBufferType == other.destinationBufferType &&
+                programFilename.equals(other.programFilename) &&
+                Arrays.equals(imageSizes, other.imageSizes) &&
+                Arrays.equals(imageNames, other.imageNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(anchorClass.getCanonicalName()).append(" ").append(programFilename);
+        if (sizeIndependent) {
+            text.append(" size-independent");
+        }
+        text.append(" MAX_ARRAY_SIZE = ").append(maxArraySize);
+        text.append(" src = ").append(sourceType);
+        text.append(" dst = ").append(destinationType);
+        if (sourceBufferType != null) {
+            text.append(" src buffer = ").append(sourceBufferType);
+        }
+        if (destinationBufferType != null) {
+            text.append(" dst buffer = ").append(destinationBufferType);
+        }
+        for (int i = 0; i < imageNames.length; i++) {
+            text.append(" ").append(imageNames[i]).append(" = ")
+                    .append(imageSizes[i * 3]).append("/")
+                    .append(imageSizes[i * 3 + 1]).append("/")
+                    .append(imageSizes[i * 3 + 2]);
+        }
+        return text.toString();
+    }
+}
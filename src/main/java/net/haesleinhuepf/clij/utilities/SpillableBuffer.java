@@ -0,0 +1,79 @@
+package net.haesleinhuepf.clij.utilities;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLQueue;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.coremem.offheap.OffHeapMemory;
+
+import java.util.Arrays;
+
+/**
+ * A SpillableBuffer is a handle to a ClearCLBuffer which may be moved to off-heap host memory when the
+ * device runs out of memory. Hand the handle over to CLIJ.execute() instead of the buffer: the buffer is
+ * uploaded again if necessary when the kernel is executed.
+ * <p>
+ * Buffers returned by getBuffer() should be used immediately and not be stored, as they are closed when
+ * the handle is spilled again. Methods of Kernels and CLIJOps don't accept SpillableBuffers; buffers passed
+ * to them via getBuffer() may be spilled by allocations in between, e.g. of temporary images.
+ */
+public class SpillableBuffer {
+    private final HostSpilling hostSpilling;
+    private final long[] dimensions;
+    private final NativeTypeEnum nativeType;
+    private final long sizeInBytes;
+
+    ClearCLBuffer buffer;
+    OffHeapMemory hostCopy = null;
+    long lastUse;
+    int pinCount = 0;
+    // queue of the kernel which used the buffer last and whether it is being spilled or restored right now
+    ClearCLQueue lastQueue = null;
+    boolean transferring = false;
+
+    SpillableBuffer(HostSpilling hostSpilling, ClearCLBuffer buffer) {
+        this.hostSpilling = hostSpilling;
+        this.buffer = buffer;
+        this.dimensions = buffer.getDimensions();
+        this.nativeType = buffer.getNativeType();
+        this.sizeInBytes = buffer.getSizeInBytes();
+    }
+
+    /**
+     * @return the buffer on the device; uploads it again if it was spilled
+     */
+    public ClearCLBuffer getBuffer() {
+        return hostSpilling.restore(this);
+    }
+
+    public boolean isSpilled() {
+        return hostCopy != null;
+    }
+
+    public boolean isClosed() {
+        return buffer == null && hostCopy == null;
+    }
+
+    public long[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    public NativeTypeEnum getNativeType() {
+        return nativeType;
+    }
+
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Frees device and host memory of this buffer.
+     */
+    public void close() {
+        hostSpilling.close(this);
+    }
+
+    @Override
+    public String toString() {
+        return "SpillableBuffer " + Arrays.toString(dimensions) + " " + nativeType + (isSpilled() ? " (spilled)" : "");
+    }
+}
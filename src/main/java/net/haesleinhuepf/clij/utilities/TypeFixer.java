@@ -44,6 +44,31 @@ public class TypeFixer {
         }
     }
 
+    /**
+     * @return true if fix() would convert images to float
+     */
+    public boolean isFixNecessary() {
+        return hasMixedTypes(inputMap) || hasMixedTypes(outputMap);
+    }
+
+    private static boolean hasMixedTypes(HashMap<String, Object> currentMap) {
+        NativeTypeEnum type = null;
+        for (Object object : currentMap.values()) {
+            NativeTypeEnum currentType = null;
+            if (object instanceof ClearCLImage) {
+                currentType = ((ClearCLImage) object).getNativeType();
+            } else if (object instanceof ClearCLBuffer) {
+                currentType = ((ClearCLBuffer) object).getNativeType();
+            }
+            if (type == null) {
+                type = currentType;
+            } else if (type != currentType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void fix() {
         fix(inputMap);
         fix(outputMap);
@@ -60,26 +85,7 @@ public class TypeFixer {
             return;
         }
 
-        boolean fixNecessary = false;
-        NativeTypeEnum type = null;
-        for (String key : currentMap.keySet()) {
-            Object object = currentMap.get(key);
-            NativeTypeEnum currentType = null;
-            if (object instanceof ClearCLImage) {
-                currentType = ((ClearCLImage) object).getNativeType();
-            } else if (object instanceof ClearCLBuffer) {
-                currentType = ((ClearCLBuffer) object).getNativeType();
-            }
-            if (type == null) {
-                type = currentType;
-            } else {
-                if (type != currentType) {
-                    fixNecessary = true;
-                }
-            }
-        }
-
-        if (!fixNecessary) {
+        if (!hasMixedTypes(currentMap)) {
             currentMap.clear();
             return;
         }
@@ -89,7 +95,7 @@ public class TypeFixer {
             if (object instanceof ClearCLImage) {
                 ClearCLImage inImage = (ClearCLImage) object;
                 if (inImage.getNativeType() != NativeTypeEnum.Float) {
-                    ClearCLImage image = clij.create(inImage.getDimensions(), ImageChannelDataType.Float);
+                    ClearCLImage image = clij.createTemporary(inImage.getDimensions(), ImageChannelDataType.Float);
                     if (currentMap == inputMap) {
                         //System.out.println("  copying");
                         clij.op().copy(inImage, image);
@@ -104,7 +110,7 @@ public class TypeFixer {
                 ClearCLBuffer inBuffer =(ClearCLBuffer) object;
                 if (inBuffer.getNativeType() != NativeTypeEnum.Float) {
 
-                    ClearCLBuffer buffer = clij.create(inBuffer.getDimensions(), NativeTypeEnum.Float);
+                    ClearCLBuffer buffer = clij.createTemporary(inBuffer.getDimensions(), NativeTypeEnum.Float);
                     if (currentMap == inputMap) {
                         //System.out.println("  copying");
                         clij.op().copy(inBuffer, buffer);
@@ -130,7 +136,7 @@ public class TypeFixer {
                         clij.op().copy(image, outImage);
                     }
                     //System.out.println("unFIXING " + key + " " + outImage);
-                    image.close();
+                    clij.release(image);
                     map.remove(key);
                     map.put(key, outImage);
                 } else if (object instanceof ClearCLBuffer) {
@@ -141,7 +147,7 @@ public class TypeFixer {
                         clij.op().copy(buffer, outBuffer);
                     }
                     //System.out.println("unFIXING " + key + " " + outBuffer);
-                    buffer.close();
+                    clij.release(buffer);
                     map.remove(key);
                     map.put(key, outBuffer);
                 }
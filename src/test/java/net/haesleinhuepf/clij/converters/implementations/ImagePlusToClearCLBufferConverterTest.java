@@ -2,13 +2,18 @@ package net.haesleinhuepf.clij.converters.implementations;
 
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.haesleinhuepf.clij.clearcl.util.ElapsedTime;
+import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.NewImage;
+import ij.plugin.Duplicator;
+import ij.process.ImageProcessor;
 import net.haesleinhuepf.clij.CLIJ;
 import net.haesleinhuepf.clij.test.TestUtilities;
 import org.junit.Test;
 
 import static net.haesleinhuepf.clij.test.TestUtilities.clBuffersEqual;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class ImagePlusToClearCLBufferConverterTest {
@@ -127,4 +132,80 @@ public class ImagePlusToClearCLBufferConverterTest {
         temp1.close();
         temp2.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConversionKeepsPosition() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ImagePlus imp1 = NewImage.createFloatImage("text", 512, 512, 30, NewImage.FILL_RAMP);
+        makeSlicesDistinct(imp1);
+        imp1.setSlice(7);
+
+        ImagePlusToClearCLBufferConverter ibConverter = new ImagePlusToClearCLBufferConverter();
+        ibConverter.setCLIJ(clij);
+
+        temp1 = ibConverter.convert(imp1);
+        assertEquals(7, imp1.getCurrentSlice());
+
+        temp2 = ibConverter.convertLegacy(imp1);
+        assertTrue(clBuffersEqual(clij, temp1, temp2, 0.001));
+        temp1.close();
+        temp2.close();
+        imp1.close();
+    }
+
+    @Test
+    public void testHyperStackConversionKeepsPosition() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ImagePlusToClearCLBufferConverter ibConverter = new ImagePlusToClearCLBufferConverter();
+        ibConverter.setCLIJ(clij);
+
+        // channels and frames: the channels of the current frame are pushed
+        ImagePlus imp1 = IJ.createHyperStack("text", 128, 128, 3, 1, 4, 32);
+        makeSlicesDistinct(imp1);
+        imp1.setPosition(2, 1, 3);
+
+        temp1 = ibConverter.convert(imp1);
+        assertEquals(2, imp1.getC());
+        assertEquals(1, imp1.getZ());
+        assertEquals(3, imp1.getT());
+
+        ImagePlus channelsOfFrame = new Duplicator().run(imp1, 1, 3, 1, 1, 3, 3);
+        temp2 = ibConverter.convertLegacy(channelsOfFrame);
+        assertTrue(clBuffersEqual(clij, temp1, temp2, 0.001));
+        temp1.close();
+        temp2.close();
+        channelsOfFrame.close();
+        imp1.close();
+
+        // frames only
+        ImagePlus imp2 = IJ.createHyperStack("text", 128, 128, 1, 1, 5, 16);
+        makeSlicesDistinct(imp2);
+        imp2.setPosition(1, 1, 4);
+
+        temp1 = ibConverter.convert(imp2);
+        assertEquals(4, imp2.getT());
+
+        temp2 = ibConverter.convertLegacy(imp2);
+        assertTrue(clBuffersEqual(clij, temp1, temp2, 0.001));
+        temp1.close();
+        temp2.close();
+        imp2.close();
+    }
+
+    /**
+     * Gives every plane of the stack its own content, so that pushing wrong planes is detected.
+     */
+    private void makeSlicesDistinct(ImagePlus imp) {
+        ImageStack stack = imp.getStack();
+        for (int i = 1; i <= stack.getSize(); i++) {
+            ImageProcessor ip = stack.getProcessor(i);
+            for (int y = 0; y < ip.getHeight(); y++) {
+                for (int x = 0; x < ip.getWidth(); x++) {
+                    ip.setf(x, y, i * 100 + (x + y) % 50);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.AllocationScope;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * AllocationScopeTest
+ */
+public class AllocationScopeTest {
+    @Test
+    public void testImagesAreReleasedExceptEscapedOnes() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer temp;
+        ClearCLBuffer result;
+        try (AllocationScope scope = clij.openScope()) {
+            temp = clij.create(new long[]{100, 100}, NativeTypeEnum.Float);
+            result = scope.escape(clij.create(temp));
+            clij.op().set(temp, 1f);
+            clij.op().addImageAndScalar(temp, result, 1f);
+            assertEquals(1, scope.getNumberOfTrackedImages());
+        }
+        assertNull(temp.getPeerPointer());
+        assertNotNull(result.getPeerPointer());
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(result), 0.001);
+
+        result.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testImagesAreReleasedOnException() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer[] temp = new ClearCLBuffer[1];
+        try (AllocationScope scope = clij.openScope()) {
+            temp[0] = clij.create(new long[]{100, 100}, NativeTypeEnum.Float);
+            throw new IllegalStateException("test");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNull(temp[0].getPeerPointer());
+
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testMemoryIsRecycledInLoops() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer input = clij.create(new long[]{100, 100}, NativeTypeEnum.Float);
+        clij.op().set(input, 1f);
+        long allocationCount = 0;
+        try (AllocationScope scope = clij.openScope()) {
+            for (int i = 0; i < 10; i++) {
+                ClearCLBuffer blurred = clij.create(input);
+                clij.op().blur(input, blurred, 2f, 2f);
+                scope.recycle();
+                if (i == 0) {
+                    allocationCount = clij.getMemoryAccounting().getAllocationCount();
+                } else {
+                    // blurred image and temporary images of blur are reused
+                    assertEquals(allocationCount, clij.getMemoryAccounting().getAllocationCount());
+                }
+            }
+            assertTrue(scope.getRecycledImageCount() >= 9);
+        }
+
+        input.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testScopesMustBeClosedInOrder() {
+        CLIJ clij = CLIJ.getInstance();
+
+        AllocationScope outer = clij.openScope();
+        AllocationScope inner = clij.openScope();
+        try {
+            outer.close();
+            fail("Closing the outer scope first must fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        inner.close();
+        outer.close();
+
+        IJ.exit();
+        clij.close();
+    }
+}
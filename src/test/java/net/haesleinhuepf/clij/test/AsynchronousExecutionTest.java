@@ -0,0 +1,70 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.utilities.KernelExecutionHandle;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AsynchronousExecutionTest
+ */
+public class AsynchronousExecutionTest {
+    @Test
+    public void testOpsWithoutWaiting() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setWaitForKernelFinish(false);
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        clij.op().set(src, 1f);
+        for (int i = 0; i < 10; i++) {
+            clij.op().addImageAndScalar(src, dst, 1f);
+            clij.op().copy(dst, src);
+        }
+
+        // pulling waits for all kernels
+        ImagePlus imp = clij.pull(src);
+        assertEquals(11.0, imp.getProcessor().getf(50, 50), 0.001);
+        assertEquals(11.0 * 10000, clij.op().sumPixels(src), 0.001);
+
+        clij.setWaitForKernelFinish(true);
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testExecuteAsync() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+        clij.op().set(src, 2f);
+
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("src", src);
+        parameters.put("dst", dst);
+        parameters.put("scalar", 3f);
+        KernelExecutionHandle handle = clij.executeAsync(Kernels.class, "math" + src.getDimension() + "D.cl", "addScalar_" + src.getDimension() + "d", parameters);
+
+        assertTrue(handle.get());
+        assertTrue(handle.isDone());
+        assertEquals(5.0 * 10000, clij.op().sumPixels(dst), 0.001);
+
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,71 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BatchExecutionTest
+ */
+public class BatchExecutionTest {
+    private static final int NUMBER_OF_FRAMES = 5;
+
+    @Test
+    public void testBatchEqualsOneByOne() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ArrayList<ClearCLBuffer> frames = new ArrayList<>();
+        ArrayList<ClearCLBuffer> batchResults = new ArrayList<>();
+        ArrayList<ClearCLBuffer> projections = new ArrayList<>();
+        ClearCLBuffer temp = clij.createCLBuffer(new long[]{32, 32, 8}, NativeTypeEnum.Float);
+        clij.op().set(temp, 1f);
+        for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+            ClearCLBuffer frame = clij.createCLBuffer(temp);
+            clij.op().multiplyImageAndCoordinate(temp, frame, i % 3);
+            frames.add(frame);
+            batchResults.add(clij.createCLBuffer(temp));
+            projections.add(clij.createCLBuffer(new long[]{32, 32}, NativeTypeEnum.Float));
+        }
+        ClearCLBuffer reference = clij.createCLBuffer(temp);
+        ClearCLBuffer referenceProjection = clij.createCLBuffer(new long[]{32, 32}, NativeTypeEnum.Float);
+
+        // blur
+        assertTrue(clij.op().blurBatch(frames, batchResults, 2f, 2f, 1f));
+        for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+            clij.op().blur(frames.get(i), reference, 2f, 2f, 1f);
+            assertEquals(clij.op().sumPixels(reference), clij.op().sumPixels(batchResults.get(i)), 0.01);
+        }
+
+        // threshold
+        assertTrue(clij.op().thresholdBatch(frames, batchResults, 5f));
+        for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+            clij.op().threshold(frames.get(i), reference, 5f);
+            assertEquals(clij.op().sumPixels(reference), clij.op().sumPixels(batchResults.get(i)), 0.01);
+        }
+
+        // maximum projection
+        assertTrue(clij.op().maximumZProjectionBatch(frames, projections));
+        for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+            clij.op().maximumZProjection(frames.get(i), referenceProjection);
+            assertEquals(clij.op().sumPixels(referenceProjection), clij.op().sumPixels(projections.get(i)), 0.01);
+        }
+
+        for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+            frames.get(i).close();
+            batchResults.get(i).close();
+            projections.get(i).close();
+        }
+        temp.close();
+        reference.close();
+        referenceProjection.close();
+        IJ.exit();
+        clij.close();
+    }
+}
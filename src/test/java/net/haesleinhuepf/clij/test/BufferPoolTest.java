@@ -0,0 +1,90 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.BufferPool;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BufferPoolTest
+ */
+public class BufferPoolTest {
+    @Test
+    public void testReleasedBuffersAreReused() {
+        CLIJ clij = CLIJ.getInstance();
+        BufferPool pool = new BufferPool(1024 * 1024);
+        clij.setBufferPool(pool);
+
+        ClearCLBuffer buffer = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        clij.release(buffer);
+        assertEquals(100 * 100 * 4, pool.getPooledBytes());
+
+        // different type: no reuse
+        ClearCLBuffer other = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.UnsignedByte);
+        assertNotSame(buffer, other);
+
+        // same size and type: reuse
+        ClearCLBuffer reused = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        assertSame(buffer, reused);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getPooledBytes());
+
+        // pooled buffers work like new ones
+        clij.op().set(reused, 2f);
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(reused), 0.001);
+
+        // temporaries of blurring are pooled as well
+        ClearCLBuffer blurred = clij.createCLBuffer(reused);
+        clij.op().blur(reused, blurred, 2f, 2f);
+        long hits = pool.getHitCount();
+        clij.op().blur(reused, blurred, 2f, 2f);
+        assertTrue(pool.getHitCount() > hits);
+
+        System.out.println(pool);
+
+        clij.release(reused);
+        clij.release(other);
+        blurred.close();
+        clij.setBufferPool(null);
+        assertEquals(0, pool.getNumberOfPooledImages());
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testMemoryCap() {
+        CLIJ clij = CLIJ.getInstance();
+        // room for two 100x100 float images
+        BufferPool pool = new BufferPool(2 * 100 * 100 * 4);
+        clij.setBufferPool(pool);
+
+        ClearCLBuffer buffer1 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer buffer2 = clij.createCLBuffer(buffer1);
+        ClearCLBuffer buffer3 = clij.createCLBuffer(buffer1);
+        ClearCLBuffer large = clij.createCLBuffer(new long[]{1000, 1000}, NativeTypeEnum.Float);
+
+        clij.release(buffer1);
+        clij.release(buffer2);
+        clij.release(buffer3);
+        clij.release(large);
+
+        assertEquals(2, pool.getNumberOfPooledImages());
+        assertEquals(2, pool.getEvictionCount());
+        assertTrue(pool.getPooledBytes() <= pool.getMaximumPooledBytes());
+
+        // the most recently released buffer is handed out first
+        assertSame(buffer3, clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float));
+
+        buffer3.close();
+        clij.setBufferPool(null);
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,53 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.BufferViews;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BufferViewsTest
+ */
+public class BufferViewsTest {
+    @Test
+    public void testViewsShareMemoryWithTheirParent() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer buffer = clij.create(new long[]{256, 256, 4}, NativeTypeEnum.Float);
+        clij.op().set(buffer, 1f);
+        long allocatedBytes = clij.getAllocatedMemoryInBytes();
+
+        ClearCLBuffer slice = BufferViews.createSliceView(clij, buffer, 2);
+        assertNotNull(slice);
+        assertTrue(BufferViews.isView(slice));
+        assertArrayEquals(new long[]{256, 256}, slice.getDimensions());
+        assertEquals(allocatedBytes, clij.getAllocatedMemoryInBytes());
+
+        // writing to the view changes the parent
+        clij.op().set(slice, 5f);
+        double[] sums = clij.op().sumPixelsSliceBySlice(buffer);
+        assertEquals(256 * 256, sums[1], 0.001);
+        assertEquals(5 * 256 * 256, sums[2], 0.001);
+        clij.release(slice);
+
+        ClearCLBuffer range = BufferViews.createZRangeView(clij, buffer, 2, 2);
+        assertNotNull(range);
+        assertEquals(6.0 * 256 * 256, clij.op().sumPixels(range), 0.001);
+        clij.release(range);
+
+        // regions which aren't contiguous in memory can't be viewed
+        assertNull(BufferViews.createCropView(clij, buffer, 10, 0, 0, 100, 256, 4));
+
+        buffer.close();
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,64 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ConcurrentExecutionTest
+ */
+public class ConcurrentExecutionTest {
+    @Test
+    public void testIndependentTasksOnSeveralQueues() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setNumberOfConcurrentQueues(2);
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{100, 100, 10}, NativeTypeEnum.Float);
+        clij.op().set(src, 1f);
+        ClearCLBuffer[] results = new ClearCLBuffer[5];
+        Runnable[] tasks = new Runnable[results.length];
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            results[i] = clij.createCLBuffer(src);
+            tasks[i] = () -> {
+                ClearCLBuffer temp = clij.createCLBuffer(src);
+                clij.op().addImageAndScalar(src, temp, (float) index);
+                clij.op().blur(temp, results[index], 2f, 2f, 1f);
+                temp.close();
+            };
+        }
+        clij.executeConcurrently(tasks);
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals((1.0 + i) * 100 * 100 * 10, clij.op().sumPixels(results[i]), 1);
+            results[i].close();
+        }
+
+        src.close();
+        clij.setNumberOfConcurrentQueues(4);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testCenterOfMass() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 20, 30}, NativeTypeEnum.Float);
+        clij.op().set(src, 1f);
+
+        double[] centerOfMass = Kernels.centerOfMass(clij, src);
+        assertEquals(4.5, centerOfMass[0], 0.001);
+        assertEquals(9.5, centerOfMass[1], 0.001);
+        assertEquals(14.5, centerOfMass[2], 0.001);
+
+        src.close();
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,77 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.HostMemoryMapping;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * HostMemoryMappingTest
+ */
+public class HostMemoryMappingTest {
+    private static final int NUMBER_OF_REPETITIONS = 10;
+
+    @Test
+    public void testPushWithAndWithoutMapping() {
+        ImagePlus imp = IJ.createImage("test", "32-bit ramp", 512, 512, 64);
+        for (String deviceName : CLIJ.getAvailableDeviceNames()) {
+            CLIJ clij = CLIJ.getInstance(deviceName);
+            clij.setHostMemoryMappingEnabled(false);
+            ClearCLBuffer copied = clij.push(imp);
+            double expectedSum = clij.op().sumPixels(copied);
+            long copyDuration = benchmarkPush(clij, imp);
+            copied.close();
+
+            clij.setHostMemoryMappingEnabled(true);
+            ClearCLBuffer mapped = clij.push(imp);
+            assertEquals(expectedSum, clij.op().sumPixels(mapped), expectedSum / 1000000);
+            long mappingDuration = benchmarkPush(clij, imp);
+            mapped.close();
+
+            // only CPU OpenCL devices and integrated GPUs use mapping; others copy in both cases
+            System.out.println(deviceName + ": mapping used: " + clij.isHostMemoryMappingUsed() +
+                    ", push with copy: " + copyDuration + " msec, push with mapping: " + mappingDuration + " msec");
+            clij.setHostMemoryMappingEnabled(false);
+        }
+        IJ.exit();
+        CLIJ.getInstance().close();
+    }
+
+    private long benchmarkPush(CLIJ clij, ImagePlus imp) {
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_REPETITIONS; i++) {
+            clij.push(imp).close();
+        }
+        return (System.currentTimeMillis() - time) / NUMBER_OF_REPETITIONS;
+    }
+
+    @Test
+    public void testPushDirectBuffer() {
+        CLIJ clij = CLIJ.getInstance();
+        // mapping is opt-in
+        assertFalse(clij.isHostMemoryMappingEnabled());
+        clij.setHostMemoryMappingEnabled(true);
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(100 * 100 * 4).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 100 * 100; i++) {
+            directBuffer.putFloat(i * 4, 2f);
+        }
+        ClearCLBuffer buffer = clij.push(directBuffer, new long[]{100, 100}, NativeTypeEnum.Float);
+        assertEquals(clij.isHostMemoryMappingUsed(), HostMemoryMapping.isWrapped(buffer));
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(buffer), 0.001);
+
+        clij.release(buffer);
+        clij.setHostMemoryMappingEnabled(false);
+        IJ.exit();
+        clij.close();
+    }
+}
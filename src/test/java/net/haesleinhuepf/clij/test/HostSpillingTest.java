@@ -0,0 +1,66 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.utilities.HostSpilling;
+import net.haesleinhuepf.clij.utilities.MemoryAccounting;
+import net.haesleinhuepf.clij.utilities.SpillableBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HostSpillingTest
+ */
+public class HostSpillingTest {
+    private static final long SIZE_IN_BYTES = 100 * 100 * 4;
+
+    @Test
+    public void testLeastRecentlyUsedBuffersAreSpilledAndRestored() {
+        CLIJ clij = CLIJ.getInstance();
+        // room for two buffers
+        clij.setMemoryBudgetInBytes(clij.getAllocatedMemoryInBytes() + 2 * SIZE_IN_BYTES);
+
+        SpillableBuffer buffer1 = clij.createSpillableBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        clij.op().set(buffer1.getBuffer(), 1f);
+        SpillableBuffer buffer2 = clij.createSpillableBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        clij.op().set(buffer2.getBuffer(), 2f);
+
+        // the third buffer doesn't fit: the least recently used one is spilled
+        SpillableBuffer buffer3 = clij.createSpillableBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        assertTrue(buffer1.isSpilled());
+        assertFalse(buffer2.isSpilled());
+
+        // binding a spilled buffer restores it and spills another one
+        clij.execute(Kernels.class, "math2D.cl", "addScalar_2d", CLIJ.parameters(
+                "src", buffer1,
+                "scalar", 1f,
+                "dst", buffer3
+        ));
+        assertFalse(buffer1.isSpilled());
+        assertFalse(buffer3.isSpilled());
+        assertTrue(buffer2.isSpilled());
+
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(buffer3.getBuffer()), 0.001);
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(buffer2.getBuffer()), 0.001);
+
+        HostSpilling spilling = clij.getHostSpilling();
+        System.out.println(spilling);
+        assertTrue(spilling.getSpillCount() >= 2);
+        assertTrue(spilling.getRestoreCount() >= 2);
+        assertEquals(spilling.getSpillCount() * SIZE_IN_BYTES, spilling.getSpilledBytes());
+
+        buffer1.close();
+        buffer2.close();
+        buffer3.close();
+        assertEquals(0, spilling.getNumberOfSpillableBuffers());
+        clij.setMemoryBudgetInBytes(MemoryAccounting.UNLIMITED);
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,70 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLImage;
+import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.junit.Test;
+
+import static net.haesleinhuepf.clij.utilities.CLIJUtilities.isInPlaceSafe;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * InPlaceOperationsTest
+ */
+public class InPlaceOperationsTest {
+    @Test
+    public void testPixelwiseOperationsInPlace() {
+        CLIJ clij = CLIJ.getInstance();
+        assertTrue(isInPlaceSafe("addImageAndScalar"));
+        assertFalse(isInPlaceSafe("blur"));
+
+        ClearCLBuffer buffer = clij.createCLBuffer(new long[]{100, 100, 10}, NativeTypeEnum.Float);
+        clij.op().set(buffer, -2f);
+
+        clij.op().absolute(buffer, buffer);
+        assertEquals(2.0 * 100 * 100 * 10, clij.op().sumPixels(buffer), 0.001);
+
+        clij.op().addImageAndScalar(buffer, buffer, 1f);
+        assertEquals(3.0 * 100 * 100 * 10, clij.op().sumPixels(buffer), 0.001);
+
+        clij.op().multiplyImageAndScalar(buffer, buffer, 2f);
+        assertEquals(6.0 * 100 * 100 * 10, clij.op().sumPixels(buffer), 0.001);
+
+        clij.op().power(buffer, buffer, 2f);
+        assertEquals(36.0 * 100 * 100 * 10, clij.op().sumPixels(buffer), 0.01);
+
+        clij.op().invert(buffer, buffer);
+        assertEquals(-36.0 * 100 * 100 * 10, clij.op().sumPixels(buffer), 0.01);
+
+        clij.op().threshold(buffer, buffer, 0f);
+        assertEquals(0, clij.op().sumPixels(buffer), 0.001);
+
+        // neighborhood operations still refuse to work in place
+        try {
+            clij.op().blur(buffer, buffer, 2f, 2f, 2f);
+            fail("Blurring in place must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        buffer.close();
+
+        // images can't be read and written by the same kernel
+        ClearCLImage image = clij.createCLImage(new long[]{100, 100}, ImageChannelDataType.Float);
+        try {
+            clij.op().addImageAndScalar(image, image, 1f);
+            fail("Adding in place to an image must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        image.close();
+
+        IJ.exit();
+        clij.close();
+    }
+}
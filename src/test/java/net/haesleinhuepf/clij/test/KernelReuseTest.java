@@ -0,0 +1,76 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KernelReuseTest
+ */
+public class KernelReuseTest {
+    private static final int NUMBER_OF_LAUNCHES = 10000;
+
+    @Test
+    public void testResultsWithAndWithoutKernelReuse() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+        clij.op().set(src, 1f);
+
+        for (boolean kernelReuse : new boolean[]{false, true}) {
+            clij.setKernelReuse(kernelReuse);
+            for (int i = 1; i < 4; i++) {
+                // reused kernels must not keep arguments of former calls
+                clij.op().addImageAndScalar(src, dst, (float) i);
+                assertEquals((1.0 + i) * 100, clij.op().sumPixels(dst), 0.001);
+            }
+        }
+
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void benchmarkKernelReuse() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{16, 16}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+        clij.op().set(src, 0f);
+
+        long durationWithoutReuse = benchmarkLaunches(clij, src, dst, false);
+        long durationWithReuse = benchmarkLaunches(clij, src, dst, true);
+        System.out.println(NUMBER_OF_LAUNCHES + " launches without kernel reuse: " + durationWithoutReuse + " msec, with kernel reuse: " +
+                durationWithReuse + " msec, ratio: " + ((double) durationWithReuse / Math.max(1, durationWithoutReuse)));
+        assertEquals(256.0, clij.op().sumPixels(dst), 0.001);
+        // reusing kernels saves creating them; some tolerance for measurement noise
+        assertTrue(durationWithReuse <= durationWithoutReuse * 1.2 + 10);
+
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    private long benchmarkLaunches(CLIJ clij, ClearCLBuffer src, ClearCLBuffer dst, boolean kernelReuse) {
+        clij.setKernelReuse(kernelReuse);
+        // warm up: build the program
+        clij.op().addImageAndScalar(src, dst, 1f);
+        clij.finish();
+
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_LAUNCHES; i++) {
+            clij.op().addImageAndScalar(src, dst, 1f);
+        }
+        clij.finish();
+        return System.currentTimeMillis() - time;
+    }
+}
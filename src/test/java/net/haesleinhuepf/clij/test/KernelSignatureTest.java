@@ -0,0 +1,81 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.utilities.KernelSignature;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KernelSignatureTest
+ */
+public class KernelSignatureTest {
+    private static final String SOURCE = "__kernel void downsample(DTYPE_IMAGE_OUT_3D dst, DTYPE_IMAGE_IN_3D src, // comment\n" +
+            "  __constant float* factors, const int N, __private float s) {}\n" +
+            "kernel\nvoid histogram(__global int* dst_histogram, DTYPE_IMAGE_IN_2D src) {}\n";
+
+    @Test
+    public void testParsing() {
+        HashMap<String, KernelSignature> signatures = KernelSignature.parse(SOURCE);
+        assertEquals(2, signatures.size());
+
+        KernelSignature signature = signatures.get("downsample");
+        assertEquals(5, signature.getArguments().length);
+        assertEquals(1, signature.getArgument("src").getIndex());
+        assertEquals(KernelSignature.Kind.IMAGE_OR_BUFFER, signature.getArgument("src").getKind());
+        assertEquals(3, signature.getArgument("src").getDimension());
+        assertEquals(KernelSignature.Kind.BUFFER, signature.getArgument("factors").getKind());
+        assertEquals(KernelSignature.AddressSpace.CONSTANT, signature.getArgument("factors").getAddressSpace());
+        assertEquals(KernelSignature.Kind.SCALAR, signature.getArgument("N").getKind());
+        assertEquals(KernelSignature.AddressSpace.PRIVATE, signature.getArgument("s").getAddressSpace());
+
+        signature = signatures.get("histogram");
+        assertEquals(0, signature.getArgument("dst_histogram").getIndex());
+        assertEquals(KernelSignature.AddressSpace.GLOBAL, signature.getArgument("dst_histogram").getAddressSpace());
+        assertEquals(0, signature.getArgument("dst_histogram").getDimension());
+        assertEquals(2, signature.getArgument("src").getDimension());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() {
+        CLIJ clij = CLIJ.getInstance();
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("src", src);
+        parameters.put("dst", dst);
+        parameters.put("scalr", 1f);
+        try {
+            clij.execute(Kernels.class, "math2D.cl", "addScalar_2d", parameters);
+        } finally {
+            src.close();
+            dst.close();
+            IJ.exit();
+            clij.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameter() {
+        CLIJ clij = CLIJ.getInstance();
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+
+        HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("src", src);
+        parameters.put("scalar", 1f);
+        try {
+            clij.execute(Kernels.class, "math2D.cl", "addScalar_2d", parameters);
+        } finally {
+            src.close();
+            IJ.exit();
+            clij.close();
+        }
+    }
+}
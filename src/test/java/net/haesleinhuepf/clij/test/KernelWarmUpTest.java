@@ -0,0 +1,67 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.utilities.KernelDeclaration;
+import net.haesleinhuepf.clij.utilities.KernelWarmUp;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KernelWarmUpTest
+ */
+public class KernelWarmUpTest {
+    @Test
+    public void testDeclaredKernelIsNotBuiltAgain() throws ExecutionException, InterruptedException {
+        CLIJ clij = CLIJ.getInstance();
+
+        ArrayList<KernelDeclaration> declarations = new ArrayList<KernelDeclaration>();
+        declarations.add(new KernelDeclaration(Kernels.class, "math2D.cl", "addScalar_2d", NativeTypeEnum.Float, NativeTypeEnum.Float, new long[]{10, 10}));
+        assertEquals(1, (int) clij.warmUp(declarations).get());
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        long missCount = clij.getProgramCache().getMissCount();
+        clij.op().addImageAndScalar(src, dst, 1f);
+        assertEquals(missCount, clij.getProgramCache().getMissCount());
+
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testWarmUpAllKernels() throws ExecutionException, InterruptedException {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setSizeIndependentKernelCompilation(true);
+
+        int builtKernels = clij.warmUp(NativeTypeEnum.Float, new long[]{10, 10, 10}).get();
+        System.out.println("Built kernels: " + builtKernels);
+        System.out.println(clij.getProgramCache());
+        assertTrue(builtKernels > 50);
+
+        clij.setSizeIndependentKernelCompilation(false);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testTestKernelsAreNotDeclared() {
+        ArrayList<KernelDeclaration> declarations = KernelWarmUp.getKernelDeclarations(Kernels.class, NativeTypeEnum.Float, new long[]{10, 10, 10});
+        assertTrue(declarations.size() > 50);
+        for (KernelDeclaration declaration : declarations) {
+            assertFalse(declaration.getProgramFilename().equals("test.cl"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.ExecutionGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LazyExecutionTest
+ */
+public class LazyExecutionTest {
+    @Test
+    public void testLazyResultsEqualEagerResults() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{20, 20, 5}, NativeTypeEnum.UnsignedShort);
+        ClearCLBuffer eager = clij.createCLBuffer(src);
+        ClearCLBuffer lazy = clij.createCLBuffer(src);
+        clij.op().set(lazy, 1f);
+        clij.op().multiplyImageAndCoordinate(lazy, src, 0);
+
+        clij.op().blur(src, eager, 2f, 2f, 1f);
+        clij.op().addImageAndScalar(eager, lazy, 1f);
+        clij.op().blur(lazy, eager, 1f, 1f, 1f);
+        double eagerSum = clij.op().sumPixels(eager);
+
+        clij.setLazyExecution(true);
+        ExecutionGraph graph = clij.getExecutionGraph();
+        long reusedImageCount = graph.getReusedImageCount();
+
+        clij.op().blur(src, eager, 2f, 2f, 1f);
+        clij.op().addImageAndScalar(eager, lazy, 1f);
+        clij.op().blur(lazy, eager, 1f, 1f, 1f);
+        assertTrue(graph.getNumberOfPendingNodes() > 0);
+        // temporaries of the first blur are reused by the second
+        assertTrue(graph.getReusedImageCount() > reusedImageCount);
+
+        // pulling executes the recorded kernels
+        assertEquals(eagerSum, clij.op().sumPixels(eager), 0.001);
+        assertEquals(0, graph.getNumberOfPendingNodes());
+
+        clij.setLazyExecution(false);
+        assertEquals(0, graph.getNumberOfReleasedImages());
+
+        src.close();
+        eager.close();
+        lazy.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testDeadTemporariesAreEliminated() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+        clij.op().set(src, 1f);
+
+        clij.setLazyExecution(true);
+        ExecutionGraph graph = clij.getExecutionGraph();
+        long eliminatedNodeCount = graph.getEliminatedNodeCount();
+
+        // the result of this kernel is never read
+        ClearCLBuffer temp = clij.createTemporary(src.getDimensions(), NativeTypeEnum.Float);
+        clij.op().addImageAndScalar(src, temp, 5f);
+        clij.release(temp);
+
+        clij.op().addImageAndScalar(src, dst, 2f);
+        clij.flush();
+
+        assertEquals(eliminatedNodeCount + 1, graph.getEliminatedNodeCount());
+        assertEquals(3.0 * 100, clij.op().sumPixels(dst), 0.001);
+
+        clij.setLazyExecution(false);
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+}
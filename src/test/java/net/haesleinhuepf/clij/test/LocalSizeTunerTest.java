@@ -0,0 +1,96 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.LocalSizeTuner;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LocalSizeTunerTest
+ */
+public class LocalSizeTunerTest {
+    @Test
+    public void testTunedLocalSizesArePersisted() throws IOException {
+        File file = new File(Files.createTempDirectory("clij_local_sizes").toFile(), "local_sizes.properties");
+
+        CLIJ clij = CLIJ.getInstance();
+        clij.setLocalSizeTuningFile(file);
+        double reference = meanAndSum(clij);
+        assertEquals(1, clij.getLocalSizeTuner().getTuningCount());
+        assertTrue(file.exists());
+        clij.close();
+
+        // second session: no tuning anymore, same result
+        clij = CLIJ.getInstance();
+        clij.setLocalSizeTuningFile(file);
+        assertEquals(reference, meanAndSum(clij), 0.001);
+        assertEquals(0, clij.getLocalSizeTuner().getTuningCount());
+
+        clij.getLocalSizeTuner().clear();
+        clij.setLocalSizeTuningFile(null);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testNotFittingSizesAreNotPersisted() throws IOException {
+        File file = new File(Files.createTempDirectory("clij_local_sizes").toFile(), "local_sizes.properties");
+
+        CLIJ clij = CLIJ.getInstance();
+        clij.setLocalSizeTuningFile(file);
+        // no candidate divides odd sizes: nothing is tuned
+        meanAndSum(clij, 511);
+        assertEquals(0, clij.getLocalSizeTuner().getTuningCount());
+        meanAndSum(clij, 64);
+        assertEquals(1, clij.getLocalSizeTuner().getTuningCount());
+
+        clij.getLocalSizeTuner().clear();
+        clij.setLocalSizeTuningFile(null);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testNotFittingLocalSizesFallBackToDriverDefault() throws IOException {
+        File file = new File(Files.createTempDirectory("clij_local_sizes").toFile(), "local_sizes.properties");
+        Files.write(file.toPath(), Arrays.asList("key=16,8"), StandardCharsets.ISO_8859_1);
+
+        LocalSizeTuner tuner = new LocalSizeTuner(file);
+        assertArrayEquals(new long[]{16, 8}, tuner.getLocalSizes("key", new long[]{64, 64}));
+        assertNull(tuner.getLocalSizes("key", new long[]{64, 60}));
+        assertEquals(0, tuner.getLocalSizes("other_key", new long[]{64, 64}).length);
+    }
+
+    private double meanAndSum(CLIJ clij) {
+        return meanAndSum(clij, 64);
+    }
+
+    private double meanAndSum(CLIJ clij, long size) {
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{size, size}, NativeTypeEnum.Float);
+        ClearCLBuffer temp = clij.createCLBuffer(src);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        clij.op().set(temp, 1f);
+        clij.op().multiplyImageAndCoordinate(temp, src, 0);
+        clij.op().meanSphere(src, dst, 5, 5);
+        double sum = clij.op().sumPixels(dst);
+
+        src.close();
+        temp.close();
+        dst.close();
+        return sum;
+    }
+}
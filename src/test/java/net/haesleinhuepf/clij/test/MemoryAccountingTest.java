@@ -0,0 +1,91 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.BufferPool;
+import net.haesleinhuepf.clij.utilities.MemoryAccounting;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * MemoryAccountingTest
+ */
+public class MemoryAccountingTest {
+    private static final long SIZE_IN_BYTES = 100 * 100 * 4;
+
+    @Test
+    public void testAllocatedMemoryIsTracked() {
+        CLIJ clij = CLIJ.getInstance();
+        long formerlyAllocated = clij.getAllocatedMemoryInBytes();
+
+        ClearCLBuffer buffer1 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer buffer2 = clij.createCLBuffer(buffer1);
+        assertEquals(formerlyAllocated + 2 * SIZE_IN_BYTES, clij.getAllocatedMemoryInBytes());
+
+        buffer1.close();
+        assertEquals(formerlyAllocated + SIZE_IN_BYTES, clij.getAllocatedMemoryInBytes());
+        assertTrue(clij.getMemoryAccounting().getPeakBytes() >= formerlyAllocated + 2 * SIZE_IN_BYTES);
+
+        buffer2.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testDirectlyClosedImagesMakeRoom() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setMemoryBudgetInBytes(clij.getAllocatedMemoryInBytes() + 2 * SIZE_IN_BYTES);
+
+        // the first buffer is released via CLIJ, the second one closed directly
+        ClearCLBuffer buffer1 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer buffer2 = clij.createCLBuffer(buffer1);
+        clij.release(buffer1);
+        buffer2.close();
+
+        ClearCLBuffer buffer3 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer buffer4 = clij.createCLBuffer(buffer3);
+        assertEquals(0, clij.getMemoryAccounting().getRejectedAllocationCount());
+
+        buffer3.close();
+        buffer4.close();
+        clij.setMemoryBudgetInBytes(MemoryAccounting.UNLIMITED);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testBudgetIsEnforced() {
+        CLIJ clij = CLIJ.getInstance();
+        BufferPool pool = new BufferPool(10 * SIZE_IN_BYTES);
+        clij.setBufferPool(pool);
+        clij.setMemoryBudgetInBytes(clij.getAllocatedMemoryInBytes() + 2 * SIZE_IN_BYTES);
+
+        ClearCLBuffer buffer1 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer buffer2 = clij.createCLBuffer(buffer1);
+        try {
+            clij.createCLBuffer(buffer1);
+            fail("Allocation exceeding the budget must fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, clij.getMemoryAccounting().getRejectedAllocationCount());
+
+        // pooled images are closed to make room
+        clij.release(buffer2);
+        assertEquals(1, pool.getNumberOfPooledImages());
+        ClearCLBuffer buffer3 = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.UnsignedByte);
+        assertEquals(0, pool.getNumberOfPooledImages());
+
+        buffer1.close();
+        buffer3.close();
+        clij.setMemoryBudgetInBytes(MemoryAccounting.UNLIMITED);
+        clij.setBufferPool(null);
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,65 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.MetricsRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MetricsRegistryTest
+ */
+public class MetricsRegistryTest {
+    @Test
+    public void testPercentiles() {
+        MetricsRegistry registry = new MetricsRegistry();
+        for (int i = 1; i <= 1000; i++) {
+            registry.record("test", i * 1000L, 10);
+        }
+        MetricsRegistry.Metric metric = registry.getMetric("test");
+        assertEquals(1000, metric.getCount());
+        assertEquals(10000, metric.getBytes());
+        assertEquals(1000000, metric.getMaximumNanoSeconds());
+        // buckets are exact up to 12.5%
+        assertEquals(500000, metric.getP50NanoSeconds(), 500000 * 0.125);
+        assertEquals(990000, metric.getP99NanoSeconds(), 990000 * 0.125);
+
+        registry.reset();
+        assertNull(registry.getMetric("test"));
+    }
+
+    @Test
+    public void testKernelsConversionsAndAllocationsAreRecorded() {
+        CLIJ clij = CLIJ.getInstance();
+        MetricsRegistry registry = new MetricsRegistry();
+        clij.setMetricsRegistry(registry);
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{100, 100}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+        clij.op().set(src, 1f);
+        clij.op().addImageAndScalar(src, dst, 1f);
+        ImagePlus imp = clij.pull(dst);
+
+        System.out.println(registry);
+        MetricsRegistry.Metric kernel = registry.getMetric("kernel addScalar_2d");
+        assertNotNull(kernel);
+        assertEquals(1, kernel.getCount());
+        assertEquals(2 * 100 * 100 * 4, kernel.getBytes());
+        assertTrue(registry.getMetric("allocate ClearCLBuffer").getCount() >= 2);
+        assertNotNull(registry.getMetric("convert ClearCLBuffer to ImagePlus"));
+
+        clij.setMetricsRegistry(null);
+        src.close();
+        dst.close();
+        imp.close();
+        IJ.exit();
+        clij.close();
+    }
+}
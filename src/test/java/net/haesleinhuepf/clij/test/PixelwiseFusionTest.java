@@ -0,0 +1,85 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PixelwiseFusionTest
+ */
+public class PixelwiseFusionTest {
+    @Test
+    public void testFusedEqualsSequential3d() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ImagePlus imp = NewImage.createFloatImage("test", 20, 20, 5, NewImage.FILL_RAMP);
+        ClearCLBuffer src = clij.push(imp);
+        ClearCLBuffer mask = clij.create(src);
+        Kernels.threshold(clij, src, mask, 0.25f);
+
+        // sequential
+        ClearCLBuffer temp1 = clij.create(src);
+        ClearCLBuffer temp2 = clij.create(src);
+        ClearCLBuffer sequential = clij.create(src);
+        Kernels.multiplyImageAndScalar(clij, src, temp1, 100f);
+        Kernels.addImageAndScalar(clij, temp1, temp2, -30f);
+        Kernels.absolute(clij, temp2, temp1);
+        Kernels.power(clij, temp1, temp2, 0.5f);
+        Kernels.mask(clij, temp2, mask, sequential);
+
+        // fused
+        ClearCLBuffer fused = clij.create(src);
+        clij.fuse(src).multiplyImageAndScalar(100f).addImageAndScalar(-30f).absolute().power(0.5f).mask(mask).executeTo(fused);
+
+        ClearCLBuffer difference = clij.create(src);
+        Kernels.subtractImages(clij, sequential, fused, difference);
+        Kernels.absolute(clij, difference, temp1);
+        assertEquals(0, clij.op().maximumOfAllPixels(temp1), 0.0001);
+        assertTrue(clij.op().sumPixels(fused) > 0);
+
+        clij.op().set(fused, 0f);
+        clij.fuse(src).multiplyImageAndScalar(1000f).threshold(500f).executeTo(fused);
+        Kernels.threshold(clij, src, sequential, 0.5f);
+        assertEquals(clij.op().sumPixels(sequential), clij.op().sumPixels(fused), 0.0001);
+
+        src.close();
+        mask.close();
+        temp1.close();
+        temp2.close();
+        sequential.close();
+        fused.close();
+        difference.close();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testProgramIsReusedForOtherScalars() {
+        CLIJ clij = CLIJ.getInstance();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.create(src);
+        clij.op().set(src, 1f);
+
+        clij.fuse(src).addImages(src).multiplyImageAndScalar(2f).executeTo(dst);
+        assertEquals(4.0 * 100, clij.op().sumPixels(dst), 0.001);
+
+        long buildCount = clij.getProgramCache().getBuildCount();
+        clij.fuse(src).addImages(src).multiplyImageAndScalar(3f).executeTo(dst);
+        assertEquals(6.0 * 100, clij.op().sumPixels(dst), 0.001);
+        assertEquals(buildCount, clij.getProgramCache().getBuildCount());
+
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+}
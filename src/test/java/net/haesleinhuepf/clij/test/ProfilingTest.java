@@ -0,0 +1,61 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.utilities.OpenCLProfiler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ProfilingTest
+ */
+public class ProfilingTest {
+    @Test
+    public void testKernelsAndTransfersAreProfiled() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setProfiling(true);
+
+        ImagePlus imp = NewImage.createFloatImage("test", 100, 100, 1, NewImage.FILL_WHITE);
+        ClearCLBuffer src = clij.push(imp);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        for (int i = 0; i < 3; i++) {
+            clij.op().addImageAndScalar(src, dst, 1f);
+        }
+        // results must not be affected by profiling
+        assertEquals(2.0 * 100 * 100, clij.op().sumPixels(dst), 0.001);
+
+        OpenCLProfiler profiler = clij.getProfiler();
+        System.out.println(profiler);
+
+        boolean kernelFound = false;
+        boolean uploadFound = false;
+        boolean downloadFound = false;
+        for (OpenCLProfiler.Statistics statistics : profiler.getStatistics()) {
+            if (statistics.getName().equals("addScalar_2d")) {
+                kernelFound = true;
+                assertEquals(3, statistics.getCount());
+                assertTrue(statistics.getExecutionTimeInNanoSeconds() > 0);
+            } else if (statistics.getName().equals(OpenCLProfiler.HOST_TO_DEVICE)) {
+                uploadFound = true;
+                assertEquals(100 * 100 * 4, statistics.getBytes());
+            } else if (statistics.getName().equals(OpenCLProfiler.DEVICE_TO_HOST)) {
+                downloadFound = true;
+            }
+        }
+        assertTrue(kernelFound);
+        assertTrue(uploadFound);
+        assertTrue(downloadFound);
+
+        clij.setProfiling(false);
+        src.close();
+        dst.close();
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,81 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ProgramBinaryCacheTest
+ */
+public class ProgramBinaryCacheTest {
+    @Test
+    public void testProgramsAreLoadedInSecondSession() throws IOException {
+        File directory = Files.createTempDirectory("clij_program_cache").toFile();
+
+        // first session: build and store
+        CLIJ clij = CLIJ.getInstance();
+        clij.setProgramBinaryCacheDirectory(directory);
+        assertEquals(5.0 * 100, addScalarAndSum(clij), 0.001);
+        assertTrue(clij.getProgramBinaryCache().getStoreCount() > 0);
+        clij.close();
+
+        // second session: load instead of build
+        clij = CLIJ.getInstance();
+        clij.setProgramBinaryCacheDirectory(directory);
+        assertEquals(5.0 * 100, addScalarAndSum(clij), 0.001);
+        System.out.println("Loaded programs: " + clij.getProgramBinaryCache().getLoadCount());
+        assertTrue(clij.getProgramBinaryCache().getLoadCount() > 0);
+
+        clij.getProgramBinaryCache().clear();
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testCorruptEntriesAreInvalidated() throws IOException {
+        File directory = Files.createTempDirectory("clij_program_cache").toFile();
+
+        CLIJ clij = CLIJ.getInstance();
+        clij.setProgramBinaryCacheDirectory(directory);
+        addScalarAndSum(clij);
+        clij.close();
+
+        for (File file : directory.listFiles()) {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(new byte[]{1, 2, 3});
+            outputStream.close();
+        }
+
+        clij = CLIJ.getInstance();
+        clij.setProgramBinaryCacheDirectory(directory);
+        assertEquals(5.0 * 100, addScalarAndSum(clij), 0.001);
+        assertTrue(clij.getProgramBinaryCache().getInvalidationCount() > 0);
+
+        clij.getProgramBinaryCache().clear();
+        IJ.exit();
+        clij.close();
+    }
+
+    private double addScalarAndSum(CLIJ clij) {
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        clij.op().set(src, 2f);
+        clij.op().addImageAndScalar(src, dst, 3f);
+        double sum = clij.op().sumPixels(dst);
+
+        src.close();
+        dst.close();
+        return sum;
+    }
+}
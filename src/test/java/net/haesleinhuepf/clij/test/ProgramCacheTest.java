@@ -0,0 +1,71 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.clearcl.enums.ImageChannelDataType;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import net.haesleinhuepf.clij.utilities.ProgramCache;
+import net.haesleinhuepf.clij.utilities.ProgramCacheKey;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ProgramCacheTest
+ */
+public class ProgramCacheTest {
+    @Test
+    public void testLeastRecentlyUsedProgramsAreEvicted() {
+        CLIJ clij = CLIJ.getInstance();
+        ProgramCache programCache = clij.getProgramCache();
+        programCache.setMaximumSize(2);
+        programCache.resetStatistics();
+
+        ClearCLBuffer src = clij.createCLBuffer(new long[]{10, 10}, NativeTypeEnum.Float);
+        ClearCLBuffer dst = clij.createCLBuffer(src);
+
+        for (int i = 0; i < 3; i++) {
+            clij.op().set(src, 2f);
+            clij.op().addImageAndScalar(src, dst, 3f);
+            assertEquals(5.0 * 100, clij.op().sumPixels(dst), 0.001);
+            clij.op().absolute(dst, src);
+            assertEquals(5.0 * 100, clij.op().sumPixels(src), 0.001);
+        }
+
+        System.out.println(programCache);
+        assertTrue(programCache.size() <= 2);
+        assertTrue(programCache.getEvictionCount() > 0);
+        assertTrue(programCache.getMissCount() > 0);
+        assertTrue(programCache.getBuildTimeInMilliseconds() > 0);
+
+        src.close();
+        dst.close();
+        programCache.setMaximumSize(ProgramCache.DEFAULT_MAXIMUM_SIZE);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testProgramCacheKeyEquality() {
+        ProgramCacheKey key1 = new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, NativeTypeEnum.Float, NativeTypeEnum.Float, new String[]{"src", "dst"}, new long[]{10, 10, 1, 10, 10, 1});
+        ProgramCacheKey key2 = new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, NativeTypeEnum.Float, NativeTypeEnum.Float, new String[]{"src", "dst"}, new long[]{10, 10, 1, 10, 10, 1});
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+
+        // different size
+        assertNotEquals(key1, new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, NativeTypeEnum.Float, NativeTypeEnum.Float, new String[]{"src", "dst"}, new long[]{10, 11, 1, 10, 10, 1}));
+        // different type
+        assertNotEquals(key1, new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, NativeTypeEnum.Float, NativeTypeEnum.UnsignedByte, new String[]{"src", "dst"}, new long[]{10, 10, 1, 10, 10, 1}));
+        // different compilation mode
+        assertNotEquals(key1, new ProgramCacheKey(Kernels.class, "math.cl", true, 1000, NativeTypeEnum.Float, NativeTypeEnum.Float, new String[]{"src", "dst"}, new long[]{10, 10, 1, 10, 10, 1}));
+
+        // source image and source buffer: the buffer type is part of the key
+        ProgramCacheKey key3 = new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, ImageChannelDataType.Float, NativeTypeEnum.Float, NativeTypeEnum.Float, null, new String[]{"dst", "src", "src1"}, new long[]{10, 10, 1, 10, 10, 1, 10, 10, 1});
+        ProgramCacheKey key4 = new ProgramCacheKey(Kernels.class, "math.cl", false, 1000, ImageChannelDataType.Float, NativeTypeEnum.Float, NativeTypeEnum.UnsignedShort, null, new String[]{"dst", "src", "src1"}, new long[]{10, 10, 1, 10, 10, 1, 10, 10, 1});
+        assertNotEquals(key3, key4);
+    }
+}
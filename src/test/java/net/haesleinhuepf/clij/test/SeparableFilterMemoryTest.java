@@ -0,0 +1,58 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.utilities.MemoryAccounting;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SeparableFilterMemoryTest
+ */
+public class SeparableFilterMemoryTest {
+    private static final long SIZE_IN_BYTES = 64 * 64 * 16 * 4;
+
+    @Test
+    public void testSeparableFiltersNeedAtMostOneTemporaryImage() {
+        CLIJ clij = CLIJ.getInstance();
+        MemoryAccounting accounting = clij.getMemoryAccounting();
+
+        ClearCLBuffer input = clij.create(new long[]{64, 64, 16}, NativeTypeEnum.Float);
+        ClearCLBuffer output = clij.create(input);
+        // blurring a constant image doesn't change it
+        clij.op().set(input, 1f);
+        double sum = 64 * 64 * 16;
+
+        // three axes, float output: one temporary image
+        accounting.resetPeak();
+        long allocatedBytes = clij.getAllocatedMemoryInBytes();
+        clij.op().blur(input, output, 2f, 2f, 1f);
+        assertTrue(accounting.getPeakBytes() <= allocatedBytes + SIZE_IN_BYTES);
+        assertEquals(sum, clij.op().sumPixels(output), 1);
+
+        // two axes: one temporary image
+        accounting.resetPeak();
+        clij.op().blur(input, output, 2f, 0f, 1f);
+        assertTrue(accounting.getPeakBytes() <= allocatedBytes + SIZE_IN_BYTES);
+        assertEquals(sum, clij.op().sumPixels(output), 1);
+
+        // one axis: no temporary image
+        accounting.resetPeak();
+        clij.op().maximumBox(input, output, 0, 0, 1);
+        assertEquals(allocatedBytes, accounting.getPeakBytes());
+        assertEquals(1, clij.op().maximumOfAllPixels(output), 0);
+
+        // no axis: the input is copied
+        clij.op().blur(input, output, 0f, 0f, 0f);
+        assertEquals(sum, clij.op().sumPixels(output), 0);
+
+        input.close();
+        output.close();
+        IJ.exit();
+        clij.close();
+    }
+}
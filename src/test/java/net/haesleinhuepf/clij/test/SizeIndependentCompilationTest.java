@@ -0,0 +1,76 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij.kernels.Kernels;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SizeIndependentCompilationTest
+ */
+public class SizeIndependentCompilationTest {
+    @Test
+    public void testImageWidthIsHandedOverAsArgument() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setSizeIndependentKernelCompilation(true);
+
+        for (int referenceWidth = 5; referenceWidth < 10; referenceWidth++) {
+            ClearCLBuffer src1 = clij.createCLBuffer(new long[]{referenceWidth, 2, 3}, NativeTypeEnum.Byte);
+            ClearCLBuffer src2 = clij.createCLBuffer(new long[]{4, 5, 6}, NativeTypeEnum.Byte);
+            ClearCLBuffer dst = clij.createCLBuffer(new long[]{1, 1, 1}, NativeTypeEnum.Byte);
+
+            HashMap<String, Object> parameters = new HashMap<String, Object>();
+            parameters.put("src1", src1);
+            parameters.put("src2", src2);
+            parameters.put("dst", dst);
+
+            clij.execute(Kernels.class, "test.cl", "set_pixels_to_width_src1_3d", parameters);
+
+            ImagePlus imp = clij.convert(dst, ImagePlus.class);
+            assertEquals(referenceWidth, imp.getProcessor().get(0, 0));
+
+            src1.close();
+            src2.close();
+            dst.close();
+        }
+
+        // the program was built once and reused for all other sizes
+        System.out.println("Program cache hit rate: " + clij.getProgramCacheHitRate());
+        assertTrue(clij.getProgramCacheHitRate() > 0.5);
+
+        clij.setSizeIndependentKernelCompilation(false);
+        IJ.exit();
+        clij.close();
+    }
+
+    @Test
+    public void testAddImageAndScalarOnVaryingSizes() {
+        CLIJ clij = CLIJ.getInstance();
+        clij.setSizeIndependentKernelCompilation(true);
+
+        for (int size = 10; size < 15; size++) {
+            ClearCLBuffer src = clij.createCLBuffer(new long[]{size, size + 1}, NativeTypeEnum.Float);
+            ClearCLBuffer dst = clij.createCLBuffer(src);
+
+            clij.op().set(src, 1f);
+            clij.op().addImageAndScalar(src, dst, 2f);
+
+            assertEquals(3.0 * size * (size + 1), clij.op().sumPixels(dst), 0.001);
+
+            src.close();
+            dst.close();
+        }
+
+        clij.setSizeIndependentKernelCompilation(false);
+        IJ.exit();
+        clij.close();
+    }
+}
@@ -0,0 +1,60 @@
+package net.haesleinhuepf.clij.test;
+
+import ij.IJ;
+import net.haesleinhuepf.clij.CLIJ;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ThreadSafetyTest
+ */
+public class ThreadSafetyTest {
+    private static final int NUMBER_OF_THREADS = 8;
+    private static final int NUMBER_OF_ITERATIONS = 100;
+
+    @Test
+    public void testManyThreadsSharingOneInstance() throws InterruptedException, ExecutionException {
+        CLIJ clij = CLIJ.getInstance();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+            // every thread works on images of different size and type
+            final int size = 10 + t;
+            final NativeTypeEnum type = t % 2 == 0 ? NativeTypeEnum.Float : NativeTypeEnum.UnsignedShort;
+            futures.add(executorService.submit(() -> {
+                int wrongResults = 0;
+                ClearCLBuffer src = clij.createCLBuffer(new long[]{size, size}, type);
+                ClearCLBuffer dst = clij.createCLBuffer(src);
+                for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+                    clij.op().set(src, (float) i);
+                    clij.op().addImageAndScalar(src, dst, (float) size);
+                    if (Math.abs(clij.op().sumPixels(dst) - (i + size) * size * size) > 0.001) {
+                        wrongResults++;
+                    }
+                }
+                src.close();
+                dst.close();
+                return wrongResults;
+            }));
+        }
+
+        for (Future<Integer> future : futures) {
+            assertEquals(0, (int) future.get());
+        }
+        executorService.shutdown();
+
+        System.out.println(clij.getProgramCache());
+        IJ.exit();
+        clij.close();
+    }
+}